@@ -0,0 +1,38 @@
+package bench;
+import common.*;
+import org.openjdk.jmh.annotations.*;
+
+@State (Scope.Thread)
+public class CsgBench extends NodeBench {
+
+	/* A CSG node over n spheres in a ring, each overlapping its neighbours; as a difference,
+	 * they are cut out of the rim of a sphere the size of the ring. */
+
+	@Param ({"2", "8", "32", "128"})
+	public int n;
+
+	@Param ({"union", "difference"})
+	public String op;
+
+	protected Node make () {
+		boolean diff = op.equals ("difference");
+		CSG c = new CSG (op);
+		double ring = n * 0.3 + 1;	// neighbours 2*pi*ring/n ~ 1.9 apart, radius 1
+		c.children = new Node[diff ? n+1 : n];
+		int k = 0;
+		if (diff) {
+			c.children[k++] = new Sphere (ring);
+		}
+		for (int i=0; i<n; i++) {
+			Transform t = Transform.makeTranslate (new Float3 (ring * Math.cos (2*Math.PI*i/n), ring * Math.sin (2*Math.PI*i/n), 0));
+			TransformNode tn = new TransformNode (t);
+			tn.left = new Sphere (1);
+			tn.left.parent = tn;
+			c.children[k++] = tn;
+		}
+		for (Node ch : c.children) {
+			ch.parent = c;
+		}
+		return c;
+	}
+}
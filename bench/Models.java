@@ -0,0 +1,57 @@
+package bench;
+import common.*;
+import frontend.*;
+import render.*;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+public class Models {
+
+	/* Loading the models of tests/ for the benchmarks, the way the editor does, and framing
+	 * them with a fixed camera. The interpreter and renderer print a lot as they go; that is
+	 * thrown away, as it would swamp JMH's output and take time that isn't theirs. */
+
+	public static final String DIR = "../tests";	// run.sh runs from bench/
+	public static final double PHI = 0.6, THETA = 0.4;	// camera angles, away from the axes
+	public static final double MARGIN = 1.1;	// the view is this much wider than the model's box
+
+	public static void quiet () {
+		System.setOut (new PrintStream (new OutputStream () {
+			public void write (int b) {
+			}
+		}));
+	}
+
+	public static File file (String model) {
+		File f = new File (DIR, model + ".scad");
+		if (!f.exists()) {	// from the top of the tree
+			f = new File ("tests", model + ".scad");
+		}
+		return f;
+	}
+
+	public static Tree parse (String model) throws Exception {
+		return new Parser (file (model), "", true).parse();
+	}
+
+	/* What compiling in the editor does: parse, build symbol tables, interpret. */
+	public static Node interpret (String model) throws Exception {
+		Tree t = parse (model);
+		Semantics.makeSymtables (t);
+		return new Interpreter (t).run();
+	}
+
+	/* A scene of the model on an xs x ys screen, turned by PHI and THETA and zoomed so that
+	 * its box fills the view. If the csg is being compiled to a class in the background,
+	 * this waits for that, so that every frame uses the same code. */
+	public static Scene scene (String model, int xs, int ys) throws Exception {
+		Scene s = new Scene (interpret (model));
+		s.updateCameraSize (xs, ys);
+		s.rotateStuff (PHI, THETA);
+		BBox b = s.root.bounds;
+		double size = Math.sqrt ((b.x1-b.x0)*(b.x1-b.x0) + (b.y1-b.y0)*(b.y1-b.y0) + (b.z1-b.z0)*(b.z1-b.z0));
+		s.cam.scale (MARGIN * size / Math.min (s.cam.up.mag(), s.cam.right.mag()));
+		s.waitForClass();
+		return s;
+	}
+}
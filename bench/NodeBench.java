@@ -0,0 +1,78 @@
+package bench;
+import common.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public abstract class NodeBench {
+
+	/* Calls of csg and allIntersections on one node, made by make. The points are spread over
+	 * the node's box and a margin around it, and the rays start outside the box and go through
+	 * it, so both hits and misses (and the culling by boxes) are in the mix. Both are fixed
+	 * by the seed, and results are per call. */
+
+	public static final int POINTS = 1024;
+	public static final int RAYS = 256;
+	public static final long SEED = 1;
+
+	protected Node node;
+	private double[] px, py, pz;
+	private Ray[] rays;
+	private IList il;
+
+	protected abstract Node make ();
+
+	@Setup
+	public void setup () {
+		Models.quiet();
+		node = make();
+		node.buildBounds();
+		il = new IList (node.findIptsMax());
+		BBox b = node.bounds;
+		Float3 c = b.center();
+		Float3 size = new Float3 (b.x1 - b.x0, b.y1 - b.y0, b.z1 - b.z0);
+		Random rnd = new Random (SEED);
+		px = new double[POINTS];
+		py = new double[POINTS];
+		pz = new double[POINTS];
+		for (int i=0; i<POINTS; i++) {
+			px[i] = c.x + size.x * (rnd.nextDouble() - 0.5) * 1.25;
+			py[i] = c.y + size.y * (rnd.nextDouble() - 0.5) * 1.25;
+			pz[i] = c.z + size.z * (rnd.nextDouble() - 0.5) * 1.25;
+		}
+		rays = new Ray[RAYS];
+		double far = size.mag();
+		for (int i=0; i<RAYS; i++) {
+			Float3 to = new Float3 (c.x + size.x * (rnd.nextDouble() - 0.5), c.y + size.y * (rnd.nextDouble() - 0.5), c.z + size.z * (rnd.nextDouble() - 0.5));
+			Float3 from = c.add (new Float3 (rnd.nextGaussian(), rnd.nextGaussian(), rnd.nextGaussian()).normalize().mul (far));
+			rays[i] = new Ray (from, to.sub (from).normalize());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation (POINTS)
+	public double csg () {
+		double sum = 0;
+		for (int i=0; i<POINTS; i++) {
+			sum += node.csg (px[i], py[i], pz[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation (RAYS)
+	public int allIntersections () {
+		int hits = 0;
+		for (int i=0; i<RAYS; i++) {
+			il.clear();
+			node.allIntersections (il, rays[i]);
+			hits += il.n;
+		}
+		return hits;
+	}
+}
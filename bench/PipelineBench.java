@@ -0,0 +1,35 @@
+package bench;
+import common.*;
+import frontend.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class PipelineBench {
+
+	/* Getting from source to a CSG tree for the models in tests/: parsing alone, and all of
+	 * what compiling in the editor does before the first frame (see Models.interpret). */
+
+	@Param ({"bearing", "grippy", "pulley", "test"})	// not fipple: the interpreter can't run its * modifier yet
+	public String model;
+
+	@Setup
+	public void setup () {
+		Models.quiet();
+	}
+
+	@Benchmark
+	public Tree parse () throws Exception {
+		return Models.parse (model);
+	}
+
+	@Benchmark
+	public Node interpret () throws Exception {
+		return Models.interpret (model);
+	}
+}
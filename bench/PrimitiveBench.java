@@ -0,0 +1,49 @@
+package bench;
+import common.*;
+import org.openjdk.jmh.annotations.*;
+
+@State (Scope.Thread)
+public class PrimitiveBench extends NodeBench {
+
+	/* The primitives, as the interpreter makes them: 2D shapes are only ever seen extruded. */
+
+	@Param ({"sphere", "cylinder", "cube", "polygon", "transform"})
+	public String kind;
+
+	protected Node make () {
+		if (kind.equals ("sphere")) {
+			return new Sphere (10);
+		} else if (kind.equals ("cylinder")) {
+			return extrude (new Circle (10), 20);
+		} else if (kind.equals ("cube")) {
+			return extrude (new Rectangle (20, 20), 20);
+		} else if (kind.equals ("polygon")) {
+			return extrude (star (8, 10, 4), 20);
+		} else if (kind.equals ("transform")) {
+			Transform t = Transform.makeTranslate (new Float3 (3, -2, 5)).append (Transform.makeRotate (new Float3 (1, 1, 0).normalize(), 30));
+			TransformNode tn = new TransformNode (t);
+			tn.left = new Sphere (10);
+			tn.left.parent = tn;
+			return tn;
+		}
+		throw new IllegalArgumentException ("No such primitive: " + kind);
+	}
+
+	private static Node extrude (Node shape, double h) {
+		Extrude e = new Extrude (h);
+		e.left = shape;
+		shape.parent = e;
+		return e;
+	}
+
+	/* A concave polygon: n points out at radius r, with points at radius r2 between them. */
+	private static SimplePolygon star (int n, double r, double r2) {
+		Float3[] pts = new Float3[2*n];
+		for (int i=0; i<2*n; i++) {
+			double a = Math.PI * i / n;
+			double d = (i % 2 == 0) ? r : r2;
+			pts[i] = new Float3 (d * Math.cos (a), d * Math.sin (a), 0);
+		}
+		return new SimplePolygon (pts);
+	}
+}
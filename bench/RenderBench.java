@@ -0,0 +1,38 @@
+package bench;
+import render.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 5, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class RenderBench {
+
+	/* Whole frames of the models in tests/, at a fixed camera (see Models.scene) and with the
+	 * Prefs as they are by default: threads, pruning, antialiasing and all. */
+
+	@Param ({"bearing", "grippy", "pulley", "test"})	// not fipple: the interpreter can't run its * modifier yet
+	public String model;
+
+	@Param ({"300"})
+	public int res;
+
+	private Scene scene;
+	private int[] data;
+
+	@Setup
+	public void setup () throws Exception {
+		Models.quiet();
+		scene = Models.scene (model, res, res);
+		data = new int[res*res];
+	}
+
+	@Benchmark
+	public int[] frame () {
+		Raytrace.render (scene, data, res, res);
+		return data;
+	}
+}
@@ -0,0 +1,12 @@
+#!/bin/sh
+
+# Builds the benchmarks and runs them, leaving the results in results.json (or the file
+# named by RESULTS). Arguments go to JMH, e.g. a pattern to pick benchmarks:
+#	./run.sh RenderBench
+#	./run.sh 'CsgBench.csg' -p n=32
+# Compare two result files with jmh.morethan.io or any JSON tool; each entry has the
+# benchmark, its params and primaryMetric.score with its error.
+
+cd `dirname $0`
+mvn -q -B package || exit 1
+java -jar target/benchmarks.jar -rf json -rff ${RESULTS:-results.json} "$@"
@@ -11,7 +11,7 @@ then
 	fi
 fi
 
-javac common/*.java frontend/*.java render/*.java gui/*.java
+javac common/*.java frontend/*.java render/*.java slice/*.java gui/*.java
 
 if [ $# -ge 1 ]
 then
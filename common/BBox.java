@@ -0,0 +1,198 @@
+package common;
+public class BBox {
+
+	/* Axis-aligned bounding box. A node's box is in the same coordinates that its csg and
+	 * allIntersections are called with, i.e. its parent's coordinates. Boxes are padded by EPS
+	 * so that any point at or near a surface is well inside the box of the node it belongs to. */
+
+	public static final double EPS = 1e-4;
+	public static final double BIG = 1e10;	// stands in for infinity, e.g. for the z extent of 2D objects
+
+	public double x0, y0, z0;
+	public double x1, y1, z1;
+
+	public BBox (double x0, double y0, double z0, double x1, double y1, double z1) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.z0 = z0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.z1 = z1;
+	}
+
+	public BBox (Float3 lo, Float3 hi) {
+		this (lo.x, lo.y, lo.z, hi.x, hi.y, hi.z);
+	}
+
+	public static BBox everything () {
+		return new BBox (-BIG, -BIG, -BIG, BIG, BIG, BIG);
+	}
+
+	public boolean isEmpty () {
+		return x0 > x1 || y0 > y1 || z0 > z1;
+	}
+
+	public BBox union (BBox o) {
+		return new BBox (Math.min (x0, o.x0), Math.min (y0, o.y0), Math.min (z0, o.z0),
+						 Math.max (x1, o.x1), Math.max (y1, o.y1), Math.max (z1, o.z1));
+	}
+
+	public BBox intersect (BBox o) {
+		return new BBox (Math.max (x0, o.x0), Math.max (y0, o.y0), Math.max (z0, o.z0),
+						 Math.min (x1, o.x1), Math.min (y1, o.y1), Math.min (z1, o.z1));
+	}
+
+	public BBox pad (double d) {
+		return new BBox (x0-d, y0-d, z0-d, x1+d, y1+d, z1+d);
+	}
+
+	/* Box around all eight transformed corners. This is conservative, but can grow quite a bit
+	 * under rotation. The transform is affine, so the box's center maps to the new center and
+	 * each new half-extent is the absolute matrix times the old ones; no corners needed. */
+	public BBox transform (Transform t) {
+		if (isEmpty()) return this;
+		double cx = (x0 + x1) / 2, cy = (y0 + y1) / 2, cz = (z0 + z1) / 2;
+		double ex = (x1 - x0) / 2, ey = (y1 - y0) / 2, ez = (z1 - z0) / 2;
+		double nx = t.pointX (cx, cy, cz), ny = t.pointY (cx, cy, cz), nz = t.pointZ (cx, cy, cz);
+		double fx = Math.abs (t.get (0, 0))*ex + Math.abs (t.get (0, 1))*ey + Math.abs (t.get (0, 2))*ez;
+		double fy = Math.abs (t.get (1, 0))*ex + Math.abs (t.get (1, 1))*ey + Math.abs (t.get (1, 2))*ez;
+		double fz = Math.abs (t.get (2, 0))*ex + Math.abs (t.get (2, 1))*ey + Math.abs (t.get (2, 2))*ez;
+		return new BBox (nx - fx, ny - fy, nz - fz, nx + fx, ny + fy, nz + fz);
+	}
+
+	/* Gap between this box and o; 0 if they touch or overlap. */
+	public double dist (BBox o) {
+		double dx = Math.max (0, Math.max (o.x0 - x1, x0 - o.x1));
+		double dy = Math.max (0, Math.max (o.y0 - y1, y0 - o.y1));
+		double dz = Math.max (0, Math.max (o.z0 - z1, z0 - o.z1));
+		return Math.sqrt (dx*dx + dy*dy + dz*dz);
+	}
+
+	public boolean intersects (BBox o) {
+		return x0 <= o.x1 && o.x0 <= x1 && y0 <= o.y1 && o.y0 <= y1 && z0 <= o.z1 && o.z0 <= z1;
+	}
+
+	/* Whether o lies entirely inside this box. */
+	public boolean contains (BBox o) {
+		return o.x0 >= x0 && o.x1 <= x1 && o.y0 >= y0 && o.y1 <= y1 && o.z0 >= z0 && o.z1 <= z1;
+	}
+
+	/* Smallest and largest distance from the z-axis over the box. */
+	public double minRadius () {
+		double dx = Math.max (0, Math.max (x0, -x1));
+		double dy = Math.max (0, Math.max (y0, -y1));
+		return Math.sqrt (dx*dx + dy*dy);
+	}
+
+	public double maxRadius () {
+		double dx = Math.max (Math.abs (x0), Math.abs (x1));
+		double dy = Math.max (Math.abs (y0), Math.abs (y1));
+		return Math.sqrt (dx*dx + dy*dy);
+	}
+
+	/* Smallest and largest distance from the origin over the box. */
+	public double minDist () {
+		return dist (0, 0, 0);
+	}
+
+	public double maxDist () {
+		double dx = Math.max (Math.abs (x0), Math.abs (x1));
+		double dy = Math.max (Math.abs (y0), Math.abs (y1));
+		double dz = Math.max (Math.abs (z0), Math.abs (z1));
+		return Math.sqrt (dx*dx + dy*dy + dz*dz);
+	}
+
+	public Float3 center () {
+		return new Float3 ((x0+x1)/2, (y0+y1)/2, (z0+z1)/2);
+	}
+
+	public Float3 size () {
+		return new Float3 (x1-x0, y1-y0, z1-z0);
+	}
+
+	public boolean contains (Float3 p) {
+		return contains (p.x, p.y, p.z);
+	}
+
+	public boolean contains (double x, double y, double z) {
+		return x >= x0 && x <= x1 && y >= y0 && y <= y1 && z >= z0 && z <= z1;
+	}
+
+	/* Distance from p to the box; 0 inside. */
+	public double dist (Float3 p) {
+		return dist (p.x, p.y, p.z);
+	}
+
+	public double dist (double x, double y, double z) {
+		double dx = Math.max (0, Math.max (x0 - x, x - x1));
+		double dy = Math.max (0, Math.max (y0 - y, y - y1));
+		double dz = Math.max (0, Math.max (z0 - z, z - z1));
+		return Math.sqrt (dx*dx + dy*dy + dz*dz);
+	}
+
+	/* Slab test. Rays are treated as whole lines, since the renderer doesn't clip at t=0 either.
+	 * Rays of a camera frame bring the reciprocals of their direction with them. */
+	public boolean hit (Ray r) {
+		double tmin = -Double.MAX_VALUE;
+		double tmax = Double.MAX_VALUE;
+		Float3 s = r.start;
+		Float3 d = r.dir;
+		RayFrame f = r.frame;
+		if (Math.abs (d.x) < 1e-12) {
+			if (s.x < x0 || s.x > x1) return false;
+		} else {
+			double i = (f != null) ? f.ix : 1 / d.x;
+			double ta = (x0 - s.x) * i;
+			double tb = (x1 - s.x) * i;
+			tmin = Math.max (tmin, Math.min (ta, tb));
+			tmax = Math.min (tmax, Math.max (ta, tb));
+		}
+		if (Math.abs (d.y) < 1e-12) {
+			if (s.y < y0 || s.y > y1) return false;
+		} else {
+			double i = (f != null) ? f.iy : 1 / d.y;
+			double ta = (y0 - s.y) * i;
+			double tb = (y1 - s.y) * i;
+			tmin = Math.max (tmin, Math.min (ta, tb));
+			tmax = Math.min (tmax, Math.max (ta, tb));
+		}
+		if (Math.abs (d.z) < 1e-12) {
+			if (s.z < z0 || s.z > z1) return false;
+		} else {
+			double i = (f != null) ? f.iz : 1 / d.z;
+			double ta = (z0 - s.z) * i;
+			double tb = (z1 - s.z) * i;
+			tmin = Math.max (tmin, Math.min (ta, tb));
+			tmax = Math.min (tmax, Math.max (ta, tb));
+		}
+		return tmin <= tmax;
+	}
+
+	/* Parameters at which the ray (as a whole line) enters and leaves the box. tNear > tFar
+	 * means it misses. */
+	public double tNear (Ray r) {
+		return Math.max (slabNear (r.start.x, r.dir.x, x0, x1), Math.max (slabNear (r.start.y, r.dir.y, y0, y1), slabNear (r.start.z, r.dir.z, z0, z1)));
+	}
+
+	public double tFar (Ray r) {
+		return Math.min (slabFar (r.start.x, r.dir.x, x0, x1), Math.min (slabFar (r.start.y, r.dir.y, y0, y1), slabFar (r.start.z, r.dir.z, z0, z1)));
+	}
+
+	private static double slabNear (double s, double d, double lo, double hi) {
+		if (Math.abs (d) < 1e-12) {
+			return (s < lo || s > hi) ? Double.MAX_VALUE : -Double.MAX_VALUE;
+		}
+		return Math.min ((lo - s) / d, (hi - s) / d);
+	}
+
+	private static double slabFar (double s, double d, double lo, double hi) {
+		if (Math.abs (d) < 1e-12) {
+			return (s < lo || s > hi) ? -Double.MAX_VALUE : Double.MAX_VALUE;
+		}
+		return Math.max ((lo - s) / d, (hi - s) / d);
+	}
+
+	public String toString () {
+		return "[" + new Float3 (x0, y0, z0) + " .. " + new Float3 (x1, y1, z1) + "]";
+	}
+}
@@ -0,0 +1,62 @@
+package common;
+public class Bundle {
+
+	/* The part of space that a bundle of parallel rays passes through (the rays of a screen
+	 * tile, say), as a parallelepiped: center c and half-axes u, v, w. Unlike a BBox it stays
+	 * exact under the transforms of the tree, which matters because the box around a slanted
+	 * bundle can be many times its size. See Node.prune. */
+
+	public Float3 c, u, v, w;
+
+	private Float3 nu, nv, nw;	// face normals, for misses
+
+	public Bundle (Float3 c, Float3 u, Float3 v, Float3 w) {
+		this.c = c;
+		this.u = u;
+		this.v = v;
+		this.w = w;
+		nu = v.cross (w);
+		nv = w.cross (u);
+		nw = u.cross (v);
+	}
+
+	public static Bundle of (BBox b) {
+		return new Bundle (b.center(), new Float3 ((b.x1-b.x0)/2, 0, 0), new Float3 (0, (b.y1-b.y0)/2, 0), new Float3 (0, 0, (b.z1-b.z0)/2));
+	}
+
+	public Bundle transform (Transform t) {
+		return new Bundle (t.transformPoint (c), t.transformVec (u), t.transformVec (v), t.transformVec (w));
+	}
+
+	public BBox box () {
+		double ex = Math.abs (u.x) + Math.abs (v.x) + Math.abs (w.x);
+		double ey = Math.abs (u.y) + Math.abs (v.y) + Math.abs (w.y);
+		double ez = Math.abs (u.z) + Math.abs (v.z) + Math.abs (w.z);
+		return new BBox (c.x - ex, c.y - ey, c.z - ez, c.x + ex, c.y + ey, c.z + ez);
+	}
+
+	/* True if b certainly doesn't meet the bundle. Tries the axes of the box and the face
+	 * normals of the bundle as separating axes; the edge-edge axes are left out, so some
+	 * misses go undetected, which only costs pruning. */
+	public boolean misses (BBox b) {
+		double hx = (b.x1 - b.x0) / 2, hy = (b.y1 - b.y0) / 2, hz = (b.z1 - b.z0) / 2;
+		double dx = (b.x0 + b.x1) / 2 - c.x, dy = (b.y0 + b.y1) / 2 - c.y, dz = (b.z0 + b.z1) / 2 - c.z;
+		if (Math.abs (dx) > hx + Math.abs (u.x) + Math.abs (v.x) + Math.abs (w.x)) return true;
+		if (Math.abs (dy) > hy + Math.abs (u.y) + Math.abs (v.y) + Math.abs (w.y)) return true;
+		if (Math.abs (dz) > hz + Math.abs (u.z) + Math.abs (v.z) + Math.abs (w.z)) return true;
+		return separates (nu, u, hx, hy, hz, dx, dy, dz)
+			|| separates (nv, v, hx, hy, hz, dx, dy, dz)
+			|| separates (nw, w, hx, hy, hz, dx, dy, dz);
+	}
+
+	/* n is normal to two of the half-axes, so the bundle's extent along it comes from a alone. */
+	private static boolean separates (Float3 n, Float3 a, double hx, double hy, double hz, double dx, double dy, double dz) {
+		double box = Math.abs (n.x)*hx + Math.abs (n.y)*hy + Math.abs (n.z)*hz;
+		double self = Math.abs (n.x*a.x + n.y*a.y + n.z*a.z);
+		return Math.abs (n.x*dx + n.y*dy + n.z*dz) > box + self;
+	}
+
+	public String toString () {
+		return "Bundle " + c + " +- " + u + ", " + v + ", " + w;
+	}
+}
@@ -36,10 +36,10 @@ public class  CSG extends Node {
 		}
 	}
 
-	public double csg (Float3 pt) {
+	public double csg (double x, double y, double z) {
 		double res = (type == UNION) ? 1e20 : -1e20;
 		for (int i=0; i<children.length; i++) {
-			double c = children[i].csg (pt);
+			double c = childCsg (children[i], x, y, z);
 			switch (type) {
 				case UNION:
 					res = Math.min (res, c);	break;
@@ -62,8 +62,136 @@ public class  CSG extends Node {
 		*/
 	}
 
-	public double dist (Float3 pt) {
-		return csg (pt);
+	/* A point outside a child's box is outside the child, and far enough from it (boxes are
+	 * padded) that it can't be on its surface. So there's no need to evaluate the child; a
+	 * positive value of at least EPS keeps the sign and the zero set of csg intact. */
+	private double childCsg (Node c, double x, double y, double z) {
+		if (c.bounds != null && !c.bounds.contains (x, y, z)) {
+			return Math.max (c.bounds.dist (x, y, z), BBox.EPS);
+		}
+		return c.csg (x, y, z);
+	}
+
+	/* Index of whichever child decides the value of csg at this point. */
+	private int activeChild (double x, double y, double z) {
+		int active = 0;
+		double res = (type == UNION) ? 1e20 : -1e20;
+		for (int i=0; i<children.length; i++) {
+			double c = children[i].csg (x, y, z);
+			if (type == DIFFERENCE && i > 0) c = -c;
+			if ((type == UNION) ? (c < res) : (c > res)) {
+				res = c;
+				active = i;
+			}
+		}
+		return active;
+	}
+
+	public void gradient (Float3 pt, Float3 out) {	// gradient of whichever child decides the value of csg
+		Node c = children[activeChild (pt.x, pt.y, pt.z)];
+		c.gradient (pt, out);
+		fromChild (c, out);
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {
+		children[activeChild (x, y, z)].findSurface (x, y, z, il);
+	}
+
+	public void fromChild (Node c, Float3 g) {	// subtracted children are seen inside-out
+		if (type == DIFFERENCE && c != children[0]) {
+			g.set (-g.x, -g.y, -g.z);
+		}
+	}
+
+	/* min and max of distance bounds are bounds again. A union doesn't need to look at a child
+	 * whose box is further away than the nearest child found so far. */
+	public double dist (double x, double y, double z) {
+		double res = (type == UNION) ? 1e20 : -1e20;
+		for (int i=0; i<children.length; i++) {
+			Node c = children[i];
+			double bd = (c.bounds == null) ? 0 : c.bounds.dist (x, y, z);
+			if (type == UNION && bd >= res) {
+				continue;
+			}
+			// the box distance is a bound for what's inside it too, but not one the marcher may stop on
+			double d = (bd > BBox.EPS) ? bd : c.dist (x, y, z);
+			switch (type) {
+				case UNION:
+					res = Math.min (res, d);	break;
+				case INTERSECTION:
+					res = Math.max (res, d);	break;
+				case DIFFERENCE:
+					res = Math.max (res, i==0 ? d : -d);
+			}
+		}
+		return res;
+	}
+
+	/* Bounds on childCsg over b, box shortcut included. */
+	private static Interval childInterval (Node c, BBox b) {
+		if (c.bounds == null) {
+			return c.csgInterval (b);
+		}
+		if (!c.bounds.intersects (b)) {
+			return new Interval (Math.max (c.bounds.dist (b), BBox.EPS), Double.POSITIVE_INFINITY);
+		}
+		Interval ci = c.csgInterval (b.intersect (c.bounds));
+		if (!c.bounds.contains (b)) {	// the part of b outside the box is at least EPS
+			ci = new Interval (Math.min (ci.lo, BBox.EPS), Double.POSITIVE_INFINITY);
+		}
+		return ci;
+	}
+
+	public Interval csgInterval (BBox b) {
+		Interval res = childInterval (children[0], b);
+		for (int i=1; i<children.length; i++) {
+			Interval c = childInterval (children[i], b);
+			switch (type) {
+				case UNION:
+					res = res.min (c);	break;
+				case INTERSECTION:
+					res = res.max (c);	break;
+				case DIFFERENCE:
+					res = res.max (c.neg());
+			}
+		}
+		return res;
+	}
+
+	/* A union drops children that have nothing in r, a difference drops what it subtracts
+	 * there, and either goes away entirely when nothing of it is left in r. A child whose box
+	 * misses r is outside by at least EPS (see childCsg); anything else is up to its own prune.
+	 * An intersection can't drop operands (that would let the solid grow), only prune them. */
+	public Node prune (Bundle r) {
+		ArrayList<Node> kept = new ArrayList<Node>();
+		boolean changed = false;
+		for (int i=0; i<children.length; i++) {
+			Node c = children[i];
+			Node p = (c.bounds != null && r.misses (c.bounds)) ? null : c.prune (r);
+			if (p == null) {
+				if (type == UNION || (type == DIFFERENCE && i > 0)) {
+					changed = true;
+					continue;
+				}
+				return null;	// an intersection operand or the base of a difference is missing
+			}
+			changed |= p != c;
+			kept.add (p);
+		}
+		if (kept.isEmpty()) {
+			return null;
+		}
+		if (!changed) {
+			return this;
+		}
+		if (kept.size() == 1) {
+			return kept.get (0);
+		}
+		CSG res = new CSG (type);
+		res.mat = mat;
+		res.children = kept.toArray (new Node[0]);
+		res.bounds = res.findBounds();
+		return res;
 	}
 
 	public int findIptsMax () {
@@ -78,7 +206,9 @@ public class  CSG extends Node {
 
 	public void allIntersections (IList il, Ray r) {
 		for (int i=0; i<children.length; i++) {
-			children[i].allIntersections (il, r);
+			if (children[i].bounds == null || children[i].bounds.hit (r)) {
+				children[i].allIntersections (il, r);
+			}
 		}
 		/*
 		left.allIntersections(il, r);
@@ -94,6 +224,47 @@ public class  CSG extends Node {
 		*/
 	}
 
+	public BBox findBounds () {
+		BBox b = children[0].bounds;
+		for (int i=1; i<children.length; i++) {
+			switch (type) {
+				case UNION:
+					b = b.union (children[i].bounds);	break;
+				case INTERSECTION:
+					b = b.intersect (children[i].bounds);	break;
+				case DIFFERENCE:	// can't be any bigger than what we subtract from
+					break;
+			}
+		}
+		return b;
+	}
+
+	public void spans (SpanList out, Ray r) {
+		boolean first = true;
+		for (int i=0; i<children.length; i++) {
+			Node c = children[i];
+			boolean miss = c.bounds != null && !c.bounds.hit (r);
+			if (miss) {
+				if (type == INTERSECTION || (type == DIFFERENCE && i == 0)) {
+					out.clear();
+					return;
+				}
+				continue;
+			}
+			if (first) {
+				c.spans (out, r);
+				first = false;
+			} else {
+				SpanList cs = out.scratch();
+				c.spans (cs, r);
+				out.combine (cs, type);
+			}
+			if (out.n == 0 && type != UNION) {	// nothing left to intersect with or subtract from
+				return;
+			}
+		}
+	}
+
 	public String getString () {
 		switch (type) {
 			case UNION:	return "Union";
@@ -17,12 +17,12 @@ public class  Circle extends Node2D {
 		return new Circle (rad);
 	}
 
-	public double csg (Float3 pt) {
-		return Math.sqrt(pt.x*pt.x + pt.y*pt.y) - rad;
+	public double csg (double x, double y, double z) {
+		return Math.sqrt (x*x + y*y) - rad;
 	}
 	
-	public double dist (Float3 pt) {
-		return Math.sqrt (pt.x*pt.x + pt.y*pt.y) - rad;
+	public void gradient (Float3 pt, Float3 out) {
+		out.set (pt.x, pt.y, 0);
 	}
 
 	public int findIptsMax () {
@@ -30,33 +30,59 @@ public class  Circle extends Node2D {
 	}
 
 	public void allIntersections (IList il, Ray r) {
-		Intersection i = Intersection.build (r, 0, this);
-		if (i != null) {
-			Float3 ipt = r.get (i.t);
-			if (csg (ipt) < 0) {
-				il.add (i);
+		if (Math.abs (r.dir.z) > 1e-8) {
+			double t = r.solveZ (0);
+			if (csg (r.getX (t), r.getY (t), 0) < 0) {
+				il.add (t, this, 0);
 			}
 		}
 	}
 
 	public int allContourIntersections (IList il, Ray r) {
 		/* Ripped pretty much directly out of 'Real-Time Rendering' page 741. */
-		Float3 l = new Float3 (-r.start.x, -r.start.y, 0);
-		Float3 d = new Float3 (r.dir.x, r.dir.y, 0);
-		if (d.mag() < 1e-6) return 0;
-		double dmag = d.mag();
-		d = d.normalize();
-		double s = l.dot(d);
-		double lsq = l.dot(l);
+		double lx = -r.start.x;
+		double ly = -r.start.y;
+		double dmag = Math.sqrt (r.dir.x*r.dir.x + r.dir.y*r.dir.y);
+		if (dmag < 1e-6) return 0;
+		double dx = r.dir.x / dmag;
+		double dy = r.dir.y / dmag;
+		double s = lx*dx + ly*dy;
+		double lsq = lx*lx + ly*ly;
 		if (s < 0 && lsq > rad*rad) return 0;
 		double msq = lsq - s*s;
 		if (msq > rad*rad) return 0;
 		double q = Math.sqrt (rad*rad - msq);
-		il.add (new Intersection ((s-q) / dmag, this, 0));
-		il.add (new Intersection ((s+q) / dmag, this, 0));
+		il.add ((s-q) / dmag, this, 0);
+		il.add ((s+q) / dmag, this, 0);
 		return 2;
 	}
 
+	public Curve outline () {
+		return Curve.ellipse (0, 0, rad, 0, 0, rad);
+	}
+
+	public Interval csgInterval (BBox b) {
+		return new Interval (b.minRadius() - rad, b.maxRadius() - rad);
+	}
+
+	public BBox findBounds () {	// 2D objects extend indefinitely along z until something extrudes them
+		return new BBox (-rad, -rad, -BBox.BIG, rad, rad, BBox.BIG).pad (BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {	// spans of the infinite cylinder; Extrude cuts them down
+		double a = r.dir.x*r.dir.x + r.dir.y*r.dir.y;
+		double b = r.start.x*r.dir.x + r.start.y*r.dir.y;
+		double c = r.start.x*r.start.x + r.start.y*r.start.y - rad*rad;
+		if (a < 1e-12) {
+			if (c < 0) out.add (Double.NEGATIVE_INFINITY, this, 0, Double.POSITIVE_INFINITY, this, 0);
+			return;
+		}
+		double disc = b*b - a*c;
+		if (disc < 0) return;
+		double q = Math.sqrt (disc);
+		out.add ((-b-q) / a, this, 0, (-b+q) / a, this, 0);
+	}
+
 	public String getString () {
 		return "Circle, r = " + rad;
 	}
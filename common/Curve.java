@@ -0,0 +1,200 @@
+package common;
+public class Curve {
+
+	/* A closed curve in the plane, as PlaneSection gives them: either an ellipse, given by its
+	 * centre c and two conjugate semi-diameters a and b (its points are c + a cos t + b sin t),
+	 * or a polygon. Affine maps take ellipses to ellipses, so a circle stays exact through any
+	 * transform; only cutting one makes a polygon of it (flatten). Curves bound what is on
+	 * their left once orient has been called, as contours do. */
+
+	public double cx, cy, ax, ay, bx, by;	// the ellipse
+	public double[] x, y;	// the polygon's points, or null for an ellipse
+	public int n;
+
+	public static final int MIN_SIDES = 8;	// for flatten
+
+	public static Curve ellipse (double cx, double cy, double ax, double ay, double bx, double by) {
+		Curve c = new Curve ();
+		c.cx = cx;
+		c.cy = cy;
+		c.ax = ax;
+		c.ay = ay;
+		c.bx = bx;
+		c.by = by;
+		return c;
+	}
+
+	public static Curve polygon (double[] x, double[] y, int n) {
+		Curve c = new Curve ();
+		c.x = x;
+		c.y = y;
+		c.n = n;
+		return c;
+	}
+
+	public boolean isEllipse () {
+		return x == null;
+	}
+
+	/* Signed area; positive if the curve goes counterclockwise. */
+	public double area () {
+		if (isEllipse()) {
+			return Math.PI * (ax*by - ay*bx);
+		}
+		double a = 0;
+		for (int i=0, j=n-1; i<n; j=i++) {
+			a += x[j]*y[i] - x[i]*y[j];
+		}
+		return a / 2;
+	}
+
+	/* Turns the curve round if need be so that it goes counterclockwise. */
+	public Curve orient () {
+		if (area() >= 0) {
+			return this;
+		}
+		if (isEllipse()) {
+			bx = -bx;
+			by = -by;
+			return this;
+		}
+		for (int i=0, j=n-1; i<j; i++, j--) {
+			double t = x[i];
+			x[i] = x[j];
+			x[j] = t;
+			t = y[i];
+			y[i] = y[j];
+			y[j] = t;
+		}
+		return this;
+	}
+
+	/* The curve under the map (x, y) -> (a x + b y + c, d x + e y + f), as a new curve. A map
+	 * that mirrors reverses it, so orient it again afterwards. */
+	public Curve map (double a, double b, double c, double d, double e, double f) {
+		if (isEllipse()) {
+			return ellipse (a*cx + b*cy + c, d*cx + e*cy + f, a*ax + b*ay, d*ax + e*ay, a*bx + b*by, d*bx + e*by);
+		}
+		double[] mx = new double[n], my = new double[n];
+		for (int i=0; i<n; i++) {
+			mx[i] = a*x[i] + b*y[i] + c;
+			my[i] = d*x[i] + e*y[i] + f;
+		}
+		return polygon (mx, my, n);
+	}
+
+	/* A polygon with its corners on the curve and its sides no further than tol from it. The
+	 * sides are even steps of t, whose sagitta is at most that of a circle of the ellipse's
+	 * longest radius, which is no longer than the hypotenuse of a and b. */
+	public Curve flatten (double tol) {
+		if (!isEllipse()) {
+			return this;
+		}
+		double r = Math.sqrt (ax*ax + ay*ay + bx*bx + by*by);
+		int sides = MIN_SIDES;
+		if (tol < r) {
+			sides = Math.max (MIN_SIDES, (int) Math.ceil (Math.PI / Math.acos (1 - tol / r)));
+		}
+		double[] px = new double[sides], py = new double[sides];
+		for (int i=0; i<sides; i++) {
+			double t = 2 * Math.PI * i / sides;
+			double cos = Math.cos (t), sin = Math.sin (t);
+			px[i] = cx + ax*cos + bx*sin;
+			py[i] = cy + ay*cos + by*sin;
+		}
+		return polygon (px, py, sides);
+	}
+
+	/* Least and greatest values of gx x + gy y on the curve. */
+	public double[] range (double gx, double gy) {
+		if (isEllipse()) {
+			double c = gx*cx + gy*cy;
+			double w = Math.hypot (gx*ax + gy*ay, gx*bx + gy*by);
+			return new double[] {c - w, c + w};
+		}
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<n; i++) {
+			double v = gx*x[i] + gy*y[i];
+			lo = Math.min (lo, v);
+			hi = Math.max (hi, v);
+		}
+		return new double[] {lo, hi};
+	}
+
+	public boolean isConvex () {
+		if (isEllipse()) {
+			return true;
+		}
+		double sign = 0;
+		for (int i=0; i<n; i++) {
+			int j = (i+1) % n, k = (i+2) % n;
+			double c = (x[j] - x[i]) * (y[k] - y[j]) - (y[j] - y[i]) * (x[k] - x[j]);
+			if (c * sign < 0) {
+				return false;
+			}
+			if (c != 0) {
+				sign = c;
+			}
+		}
+		return true;
+	}
+
+	/* The part of this convex polygon where lo <= gx x + gy y <= hi, or null if there is none.
+	 * A concave one could come apart into several, which this doesn't do. */
+	public Curve clip (double gx, double gy, double lo, double hi) {
+		Curve c = clip (gx, gy, lo);
+		return (c == null) ? null : c.clip (-gx, -gy, -hi);
+	}
+
+	private Curve clip (double gx, double gy, double lo) {	// keeps gx x + gy y >= lo
+		double[] cx = new double[n+1], cy = new double[n+1];
+		int k = 0;
+		for (int i=0; i<n; i++) {
+			int j = (i+1) % n;
+			double vi = gx*x[i] + gy*y[i] - lo;
+			double vj = gx*x[j] + gy*y[j] - lo;
+			if (vi >= 0) {
+				cx[k] = x[i];
+				cy[k] = y[i];
+				k++;
+			}
+			if ((vi >= 0) != (vj >= 0)) {
+				double t = vi / (vi - vj);
+				cx[k] = x[i] + t * (x[j] - x[i]);
+				cy[k] = y[i] + t * (y[j] - y[i]);
+				k++;
+			}
+		}
+		return (k < 3) ? null : polygon (cx, cy, k);
+	}
+
+	/* The stretch of the line p + s w, as {s0, s1}, that is inside this convex polygon (going
+	 * counterclockwise), or null if it misses. */
+	public double[] chord (double px, double py, double wx, double wy) {
+		double s0 = Double.NEGATIVE_INFINITY, s1 = Double.POSITIVE_INFINITY;
+		for (int i=0; i<n; i++) {
+			int j = (i+1) % n;
+			double ex = x[j] - x[i], ey = y[j] - y[i];
+			double c = ex * (py - y[i]) - ey * (px - x[i]);	// inside where c + s dc >= 0
+			double dc = ex * wy - ey * wx;
+			if (Math.abs (dc) < 1e-15) {
+				if (c < 0) return null;
+				continue;
+			}
+			double s = -c / dc;
+			if (dc > 0) {
+				s0 = Math.max (s0, s);
+			} else {
+				s1 = Math.min (s1, s);
+			}
+		}
+		return (s0 < s1) ? new double[] {s0, s1} : null;
+	}
+
+	public String toString () {
+		if (isEllipse()) {
+			return "Ellipse at (" + cx + ", " + cy + "), a = (" + ax + ", " + ay + "), b = (" + bx + ", " + by + ")";
+		}
+		return "Polygon of " + n + " points, area " + area();
+	}
+}
@@ -1,6 +1,6 @@
 package common ;
 import java.util.ArrayList;
-public class  Extrude extends Node {
+public class  Extrude extends Node implements PlaneSection {
 
 	public double h;
 
@@ -17,57 +17,190 @@ public class  Extrude extends Node {
 	 * permits this), and 3D generative operations work on their projection into the xy-plane. I am actually 
 	 * very tempted not to allow this behavior. */
 
-	public double csg (Float3 pt) {
-		double r = left.csg (pt);
-		double z = 0;
-		if (pt.z < h/2) {
-			z = -pt.z;
+	public double csg (double x, double y, double z) {
+		double r = left.csg (x, y, z);
+		double zd = 0;
+		if (z < h/2) {
+			zd = -z;
 		} else {
-			z = pt.z - h;
+			zd = z - h;
 		}
-		return Math.max (z, r);
+		return Math.max (zd, r);
 	}
 
-	public double dist (Float3 pt) {
+	public double dist (double x, double y, double z) {
 		// for now, just for straight extrudes.
-		double d_inf = left.dist (pt);
-		if (pt.z > h) {
-			if (d_inf <= 0) return pt.z - h;
-			double zleg = pt.z - h;
-			return Math.sqrt (zleg*zleg + d_inf*d_inf);
-		} else if (pt.z < 0) {
-			if (d_inf <= 0) return -pt.z;
-			double zleg = -pt.z;
-			return Math.sqrt (zleg*zleg + d_inf*d_inf);
+		double d_inf = left.dist (x, y, z);
+		double zd = Math.max (-z, z - h);
+		if (zd > 0 && d_inf > 0) {	// off an edge of the prism
+			return Math.sqrt (zd*zd + d_inf*d_inf);
+		}
+		return Math.max (zd, d_inf);
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {	// caps are ours, walls the child's
+		double r = left.csg (x, y, z);
+		double zd = (z < h/2) ? -z : z - h;
+		if (zd > r) {
+			il.hit_obj = this;
+			il.hit_facet = (z < h/2) ? -2 : -1;
+		} else {
+			left.findSurface (x, y, z, il);
+		}
+	}
+
+	public void gradient (Float3 pt, Float3 out) {
+		double r = left.csg (pt);
+		double z = (pt.z < h/2) ? -pt.z : pt.z - h;
+		if (z > r) {
+			out.set (0, 0, (pt.z < h/2) ? -1 : 1);
 		} else {
-			return d_inf;
+			left.gradient (pt, out);
+			fromChild (left, out);
 		}
 	}
 
+	public void fromChild (Node c, Float3 g) {	// the 2D child doesn't vary along z
+		g.z = 0;
+	}
+
 	public int findIptsMax () {
 		return 2 + left.findIptsMax();
 	}
 
 	public void allIntersections (IList il, Ray r) {
 		int ninter = ((Node2D) left).allContourIntersections (il, r);
-		int deleted = 0;
 		for (int i=0; i<ninter; i++) {
-			double csgval = csg (r.get (il.ints[il.n - i - 1].t));
-			if (csgval - 1e-6 > 0) {
-				il.ints[il.n - i - 1] = null;
-				deleted ++;
+			int k = il.n - i - 1;
+			double t = il.t[k];
+			if (csg (r.getX (t), r.getY (t), r.getZ (t)) - 1e-6 > 0) {
+				il.obj[k] = null;
+			}
+		}
+		if (Math.abs (r.dir.z) > 1e-8) {
+			double tt = r.solveZ (h);
+			double tb = r.solveZ (0);
+			if (onSurface (r.getX (tt), r.getY (tt), r.getZ (tt))) {
+				il.add (tt, this, -1);
+			}
+			if (onSurface (r.getX (tb), r.getY (tb), r.getZ (tb))) {
+				il.add (tb, this, -2);
+			}
+		}
+	}
+
+	public Interval csgInterval (BBox b) {
+		return Interval.slab (b.z0, b.z1, h/2, h/2).max (left.csgInterval (b));
+	}
+
+	public Node prune (Bundle r) {
+		Node l = left.prune (r);
+		if (l == null) return null;
+		if (l == left) return this;
+		Node e = copy();
+		e.left = l;
+		e.mat = mat;
+		e.bounds = e.findBounds();
+		return e;
+	}
+
+	public BBox findBounds () {
+		BBox b = left.bounds;
+		return new BBox (b.x0, b.y0, -BBox.EPS, b.x1, b.y1, h + BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {	// the child's (infinite) prism, cut to 0 <= z <= h
+		left.spans (out, r);
+		if (Math.abs (r.dir.z) < 1e-8) {
+			if (r.start.z < 0 || r.start.z > h) out.clear();
+			return;
+		}
+		double tb = r.solveZ (0);
+		double tt = r.solveZ (h);
+		if (tb < tt) {
+			out.clip (tb, this, -2, tt, this, -1);
+		} else {
+			out.clip (tt, this, -1, tb, this, -2);
+		}
+	}
+
+	/* The child's outline as one curve in our xy, or null if it isn't one (a 2D union, say).
+	 * Transforms between us and it have to keep to the xy plane. */
+	public Curve outline () {
+		return outline (left);
+	}
+
+	private static Curve outline (Node n) {
+		if (n instanceof Node2D) {
+			return ((Node2D) n).outline();
+		}
+		if (!(n instanceof TransformNode)) {
+			return null;
+		}
+		Transform t = ((TransformNode) n).xform;
+		if (Math.abs (t.get (0, 2)) + Math.abs (t.get (1, 2)) + Math.abs (t.get (2, 0)) + Math.abs (t.get (2, 1)) > 1e-12) {
+			return null;
+		}
+		Curve c = outline (n.left);
+		if (c == null) {
+			return null;
+		}
+		return c.map (t.get (0, 0), t.get (0, 1), t.get (0, 3), t.get (1, 0), t.get (1, 1), t.get (1, 3)).orient();
+	}
+
+	/* The plane is n.u = d in our coordinates. Unless it is parallel to our z axis, it is the
+	 * graph of a function z(x, y), and the section is the part of the outline where 0 <= z(x, y)
+	 * <= h, carried to the plane by m with z(x, y) put in. Level cuts keep circles whole; a
+	 * slanted one through a cap has to clip the outline, which needs it convex. A plane along
+	 * the z axis cuts a chord out of the outline, swept from z = 0 to h: a rectangle. */
+	public boolean section (Transform m, double c, double tol, ArrayList<Curve> out) {
+		Curve o = outline();
+		if (o == null) {
+			return false;
+		}
+		double nx = m.get (2, 0), ny = m.get (2, 1), nz = m.get (2, 2);
+		double d = c - m.get (2, 3);
+		if (Math.abs (nz) > 1e-9 * Math.sqrt (nx*nx + ny*ny + nz*nz)) {
+			double z0 = d / nz, zx = -nx / nz, zy = -ny / nz;	// z(x, y) = z0 + zx x + zy y
+			double[] r = o.range (zx, zy);
+			if (z0 + r[1] <= 0 || z0 + r[0] >= h) {	// a plane on a cap has no inside, as by csg
+				return true;
 			}
+			if (z0 + r[0] < 0 || z0 + r[1] > h) {
+				o = o.flatten (tol);
+				if (!o.isConvex()) {
+					return false;
+				}
+				o = o.clip (zx, zy, -z0, h - z0);
+				if (o == null) {
+					return true;
+				}
+			}
+			double mx = m.get (0, 2), my = m.get (1, 2);
+			out.add (o.map (m.get (0, 0) + mx*zx, m.get (0, 1) + mx*zy, m.get (0, 3) + mx*z0,
+							m.get (1, 0) + my*zx, m.get (1, 1) + my*zy, m.get (1, 3) + my*z0).orient());
+			return true;
+		}
+		o = o.flatten (tol);
+		if (!o.isConvex()) {
+			return false;
 		}
-		Intersection topi = Intersection.build (r, h, this);
-		Intersection boti = Intersection.build (r, 0, this);
-		if (topi != null && onSurface (r.get(topi.t))) {
-			topi.facet = -1;
-			il.add (topi);
+		double len = Math.hypot (nx, ny);
+		double px = nx * d / (len*len), py = ny * d / (len*len);	// nearest point of the line to the axis
+		double wx = -ny / len, wy = nx / len;
+		double[] s = o.chord (px, py, wx, wy);
+		if (s == null) {
+			return true;
 		}
-		if (boti != null && onSurface (r.get(boti.t))) {
-			boti.facet = -2;
-			il.add (boti);
+		double[] x = new double[4], y = new double[4];
+		for (int i=0; i<4; i++) {
+			double t = (i == 1 || i == 2) ? s[1] : s[0];
+			double z = (i < 2) ? 0 : h;
+			x[i] = m.pointX (px + t*wx, py + t*wy, z);
+			y[i] = m.pointY (px + t*wx, py + t*wy, z);
 		}
+		out.add (Curve.polygon (x, y, 4).orient());
+		return true;
 	}
 
 	public String getString () {
@@ -0,0 +1,12 @@
+package common;
+public interface Field {
+
+	/* A scalar field over space: negative inside a solid, positive outside, zero on its surface.
+	 * Every Node is one (through its csg); a Tape is the same function compiled for speed. */
+
+	public double eval (double x, double y, double z);
+
+	/* A copy that one thread can use while others use theirs. Stateless fields return themselves. */
+	public Field local ();
+
+}
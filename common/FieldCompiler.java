@@ -0,0 +1,303 @@
+package common;
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.tools.*;
+
+public class FieldCompiler {
+
+	/* Turns a finished Node tree into Java source for a class whose eval is the root's csg,
+	 * written out straight-line with every constant inlined, then compiles that in memory and
+	 * loads it as a hidden class. C2 can then inline and fold the whole thing, which it can't
+	 * do through the virtual calls of a tree walk or the switch of a Tape.
+	 *
+	 * HotSpot won't JIT a method bigger than 8000 bytes of bytecode, so the code is cut into
+	 * methods of at most BUDGET nodes each, and big CSG nodes have their children evaluated in
+	 * groups of GROUP. min and max can be regrouped freely, so the result is still exactly what
+	 * csg returns, box culling included (see CSG.childCsg). Needs a JDK at run time, and the
+	 * generated class is compiled against java.class.path, so that must hold the app's own
+	 * classes (Field, Node), as it does when run from a jar or a directory of classes but not
+	 * under a launcher with a class loader of its own; compile returns null if there is no
+	 * compiler or anything else goes wrong.
+	 * Classes are kept by their source, so compiling a tree the same as one before (the same
+	 * model compiled again in the editor) just makes a new instance of the class. */
+
+	public static final int BUDGET = 48;
+	public static final int GROUP = 12;
+
+	private static final String CLASS = "GenField";
+	private static final int KEEP = 8;	// classes kept
+
+	private static LinkedHashMap<String, MethodHandle> made = new LinkedHashMap<String, MethodHandle> (16, 0.75f, true) {
+		protected boolean removeEldestEntry (Map.Entry<String, MethodHandle> e) {
+			return size() > KEEP;
+		}
+	};	// constructors, by source, last used last
+
+	private StringBuilder src = new StringBuilder();
+	private ArrayList<Node> fallback = new ArrayList<Node>();
+	private int nmethods, nvars;
+
+	private class Method {
+		StringBuilder body = new StringBuilder();
+		int count;	// nodes emitted so far
+	}
+
+	private FieldCompiler () {
+	}
+
+	public static Field compile (Node root) {
+		long time = System.currentTimeMillis();
+		FieldCompiler fc = new FieldCompiler();
+		String source = fc.generate (root);
+		Node[] nodes = fc.fallback.toArray (new Node[0]);
+		MethodHandle make;
+		synchronized (made) {
+			make = made.get (source);
+		}
+		if (make != null) {
+			try {
+				return (Field) make.invoke (nodes);
+			} catch (Throwable e) {
+				System.err.println ("Couldn't load the compiled csg class: " + e);
+				return null;
+			}
+		}
+		byte[] bytes = javac (source);
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			MethodHandles.Lookup lk = MethodHandles.lookup().defineHiddenClass (bytes, true);
+			make = lk.findConstructor (lk.lookupClass(), MethodType.methodType (void.class, Node[].class));
+			Field f = (Field) make.invoke (nodes);
+			synchronized (made) {
+				made.put (source, make);
+			}
+			System.out.println ("Compiled csg to a class: " + fc.nmethods + " methods, " + source.length() + " chars of source, " + bytes.length + " bytes, in " + (System.currentTimeMillis() - time) + " ms");
+			return f;
+		} catch (Throwable e) {
+			System.err.println ("Couldn't load the compiled csg class: " + e);
+			return null;
+		}
+	}
+
+	/* ---- source generation ---- */
+
+	private String generate (Node root) {
+		src.append ("package common;\n");
+		src.append ("public final class " + CLASS + " implements Field {\n");
+		src.append ("\tprivate final Node[] nodes;\n");
+		src.append ("\tpublic " + CLASS + " (Node[] nodes) { this.nodes = nodes; }\n");
+		src.append ("\tpublic Field local () { return this; }\n");
+		String m = method (root);
+		src.append ("\tpublic double eval (double x, double y, double z) { return " + m + " (x, y, z); }\n");
+		src.append ("}\n");
+		return src.toString();
+	}
+
+	/* Puts n in a method of its own and returns the method's name. */
+	private String method (Node n) {
+		Method m = new Method();
+		String v = emit (n, "x", "y", "z", m);
+		return finish (m, v);
+	}
+
+	private String finish (Method m, String v) {
+		String name = "m" + (nmethods++);
+		src.append ("\tprivate double " + name + " (double x, double y, double z) {\n");
+		src.append (m.body);
+		src.append ("\t\treturn " + v + ";\n\t}\n");
+		return name;
+	}
+
+	private String var (String prefix) {
+		return prefix + (nvars++);
+	}
+
+	private void line (Method m, String s) {
+		m.body.append ("\t\t").append (s).append ('\n');
+	}
+
+	private static int size (Node n) {
+		int ct = 1;
+		if (n.left != null) ct += size (n.left);
+		if (n instanceof CSG) {
+			for (Node c : ((CSG) n).children) {
+				ct += size (c);
+			}
+		}
+		return ct;
+	}
+
+	/* Literal for d that reads back as exactly d. */
+	private static String lit (double d) {
+		if (Double.isNaN (d)) return "Double.NaN";
+		if (Double.isInfinite (d)) return d > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+		String s = Double.toString (d);
+		return d < 0 ? "(" + s + ")" : s;
+	}
+
+	/* Emits code computing n's csg at (x, y, z), which are variable names or literals, and
+	 * returns the variable holding the result. */
+	private String emit (Node n, String x, String y, String z, Method m) {
+		int sz = size (n);
+		if (m.count > 0 && m.count + sz > BUDGET) {
+			String v = var ("v");
+			line (m, "double " + v + " = " + method (n) + " (" + x + ", " + y + ", " + z + ");");
+			m.count++;
+			return v;
+		}
+		m.count++;
+		String v = var ("v");
+		if (n instanceof Sphere) {
+			line (m, "double " + v + " = Math.sqrt (" + x + "*" + x + " + " + y + "*" + y + " + " + z + "*" + z + ") - " + lit (((Sphere) n).rad) + ";");
+		} else if (n instanceof Circle) {
+			line (m, "double " + v + " = Math.sqrt (" + x + "*" + x + " + " + y + "*" + y + ") - " + lit (((Circle) n).rad) + ";");
+		} else if (n instanceof Rectangle) {
+			Rectangle r = (Rectangle) n;
+			String hx = lit (r.xs/2);
+			String hy = lit (r.ys/2);
+			line (m, "double " + v + " = Math.max (Math.abs (" + x + " - " + hx + ") - " + hx + ", Math.abs (" + y + " - " + hy + ") - " + hy + ");");
+		} else if (n instanceof SimplePolygon) {
+			SimplePolygon p = (SimplePolygon) n;
+			line (m, "double " + v + " = -1e20;");
+			for (int i=0; i<p.points.length; i++) {
+				line (m, v + " = Math.max ((" + x + " - " + lit (p.points[i].x) + ")*" + lit (p.normals[i].x) + " + (" + y + " - " + lit (p.points[i].y) + ")*" + lit (p.normals[i].y) + ", " + v + ");");
+			}
+		} else if (n instanceof Extrude) {
+			double h = ((Extrude) n).h;
+			String c = emit (n.left, x, y, z, m);
+			line (m, "double " + v + " = Math.max ((" + z + " < " + lit (h/2) + ") ? -" + z + " : " + z + " - " + lit (h) + ", " + c + ");");
+		} else if (n instanceof Revolve) {
+			String r = var ("r");
+			line (m, "double " + r + " = Math.sqrt (" + x + "*" + x + " + " + y + "*" + y + ");");
+			String c = emit (n.left, r, z, "0.0", m);
+			line (m, "double " + v + " = " + c + ";");
+		} else if (n instanceof TransformNode) {
+			Transform inv = ((TransformNode) n).inverse;
+			String[] p = {x, y, z};
+			String[] q = new String[3];
+			for (int i=0; i<3; i++) {
+				q[i] = var ("p");
+				line (m, "double " + q[i] + " = " + affine (inv, i, p) + ";");
+			}
+			String c = emit (n.left, q[0], q[1], q[2], m);
+			line (m, "double " + v + " = " + c + ";");
+		} else if (n instanceof CSG) {
+			CSG c = (CSG) n;
+			String first = emitChild (c.children[0], x, y, z, m);
+			line (m, "double " + v + " = " + first + ";");
+			for (int i=1; i<c.children.length; i+=GROUP) {
+				int to = Math.min (i + GROUP, c.children.length);
+				String g;
+				if (c.children.length > GROUP + 1) {
+					g = var ("v");
+					line (m, "double " + g + " = " + group (c, i, to) + " (" + x + ", " + y + ", " + z + ");");
+				} else {
+					g = combine (c, i, to, x, y, z, m);
+				}
+				switch (c.type) {
+					case CSG.UNION:			line (m, v + " = Math.min (" + v + ", " + g + ");");	break;
+					case CSG.INTERSECTION:	line (m, v + " = Math.max (" + v + ", " + g + ");");	break;
+					case CSG.DIFFERENCE:	line (m, v + " = Math.max (" + v + ", -" + g + ");");
+				}
+			}
+		} else {
+			line (m, "double " + v + " = nodes[" + fallback.size() + "].csg (" + x + ", " + y + ", " + z + ");");
+			fallback.add (n);
+		}
+		return v;
+	}
+
+	/* Children from..to of c, combined: min for unions and for the subtracted children of a
+	 * difference, max for an intersection. */
+	private String combine (CSG c, int from, int to, String x, String y, String z, Method m) {
+		String v = emitChild (c.children[from], x, y, z, m);
+		for (int i=from+1; i<to; i++) {
+			String cv = emitChild (c.children[i], x, y, z, m);
+			line (m, v + " = Math." + (c.type == CSG.INTERSECTION ? "max" : "min") + " (" + v + ", " + cv + ");");
+		}
+		return v;
+	}
+
+	private String group (CSG c, int from, int to) {
+		Method m = new Method();
+		String v = combine (c, from, to, "x", "y", "z", m);
+		return finish (m, v);
+	}
+
+	private String emitChild (Node c, String x, String y, String z, Method m) {
+		if (c.bounds == null) {
+			return emit (c, x, y, z, m);
+		}
+		BBox b = c.bounds;
+		String v = var ("v");
+		line (m, "double " + v + ";");
+		line (m, "if (" + x + " >= " + lit (b.x0) + " && " + x + " <= " + lit (b.x1) + " && " + y + " >= " + lit (b.y0) + " && " + y + " <= " + lit (b.y1) + " && " + z + " >= " + lit (b.z0) + " && " + z + " <= " + lit (b.z1) + ") {");
+		String cv = emit (c, x, y, z, m);
+		line (m, v + " = " + cv + ";");
+		line (m, "} else {");
+		String dx = "Math.max (0, Math.max (" + lit (b.x0) + " - " + x + ", " + x + " - " + lit (b.x1) + "))";
+		String dy = "Math.max (0, Math.max (" + lit (b.y0) + " - " + y + ", " + y + " - " + lit (b.y1) + "))";
+		String dz = "Math.max (0, Math.max (" + lit (b.z0) + " - " + z + ", " + z + " - " + lit (b.z1) + "))";
+		String[] d = {var ("d"), var ("d"), var ("d")};
+		line (m, "double " + d[0] + " = " + dx + ", " + d[1] + " = " + dy + ", " + d[2] + " = " + dz + ";");
+		line (m, v + " = Math.max (Math.sqrt (" + d[0] + "*" + d[0] + " + " + d[1] + "*" + d[1] + " + " + d[2] + "*" + d[2] + "), " + lit (BBox.EPS) + ");");
+		line (m, "}");
+		return v;
+	}
+
+	/* Row i of the transform applied to p, leaving out terms that are zero and multiplications
+	 * by one. For finite points that gives the same sum as Transform.pointX etc. */
+	private static String affine (Transform t, int i, String[] p) {
+		StringBuilder sb = new StringBuilder();
+		for (int j=0; j<4; j++) {
+			double a = t.get (i, j);
+			if (a == 0) continue;
+			String term = (j == 3) ? lit (a) : (a == 1) ? p[j] : lit (a) + "*" + p[j];
+			if (sb.length() > 0) sb.append (" + ");
+			sb.append (term);
+		}
+		return (sb.length() == 0) ? "0.0" : sb.toString();
+	}
+
+	/* ---- in-memory javac ---- */
+
+	private static byte[] javac (String source) {
+		JavaCompiler jc = ToolProvider.getSystemJavaCompiler();
+		if (jc == null) {
+			System.err.println ("No Java compiler available; csg won't be compiled to a class");
+			return null;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JavaFileObject in = new SimpleJavaFileObject (URI.create ("string:///common/" + CLASS + ".java"), JavaFileObject.Kind.SOURCE) {
+			public CharSequence getCharContent (boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		StandardJavaFileManager std = jc.getStandardFileManager (null, null, null);
+		JavaFileManager fm = new ForwardingJavaFileManager<JavaFileManager> (std) {
+			public JavaFileObject getJavaFileForOutput (Location loc, String name, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject (URI.create ("bytes:///" + name.replace ('.', '/') + ".class"), kind) {
+					public OutputStream openOutputStream () {
+						return bytes;
+					}
+				};
+			}
+		};
+		StringWriter errs = new StringWriter();
+		Boolean ok = jc.getTask (errs, fm, null, Arrays.asList ("-classpath", System.getProperty ("java.class.path"), "-g:none", "-nowarn"), null, Arrays.asList (in)).call();	// Field and Node must be found there
+		if (!ok) {
+			System.err.println ("Compiling csg failed:\n" + errs);
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -15,6 +15,17 @@ public class Float3 {
 		this.z = z;
 	}
 
+	public Float3 set (double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	public Float3 set (Float3 other) {
+		return set (other.x, other.y, other.z);
+	}
+
 	public Float3 add (Float3 other){
 		return new Float3 (x + other.x, y + other.y, z + other.z);
 	}
@@ -55,6 +66,11 @@ public class Float3 {
 		return mul (1/mag());
 	}
 
+	public Float3 normalizeSelf () {	// in place, for code that shouldn't allocate
+		double m = 1/mag();
+		return set (x*m, y*m, z*m);
+	}
+
 	public Float3 clamp () {
 		return new Float3 (clamp(x), clamp(y), clamp(z));
 	}
@@ -107,7 +123,11 @@ public class Float3 {
 	}
 
 	public int getImgRGB () {
-		return 256*256*((int) (x*255)) + 256*((int) (y*255)) + (int) (z*255);
+		return toImgRGB (x, y, z);
+	}
+
+	public static int toImgRGB (double r, double g, double b) {
+		return 256*256*((int) (r*255)) + 256*((int) (g*255)) + (int) (b*255);
 	}
 
 	public String toString () {
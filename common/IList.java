@@ -3,36 +3,55 @@ import java.util.Arrays;
 
 public class IList {
 
-	public Intersection[] ints;
+	/* Hit buffer for one ray. Hits are kept in parallel arrays rather than as Intersection
+	 * objects so that tracing a ray doesn't allocate; a hit is removed by nulling its obj.
+	 * The result of Node.intersection is left in the hit_ fields. */
+
+	public double[] t;
+	public Node[] obj;
+	public int[] facet;
 	public int n;
 	public int csg_ct;	// diagnostics
+	public SpanList spans = new SpanList();	// for Node.spanIntersection
+	public Field field;	// the root's csg, for Node.intersection; this thread's copy
+
+	public double hit_t;
+	public Node hit_obj;
+	public int hit_facet;
 
 	public IList (int cap) {
-		ints = new Intersection[cap];
+		t = new double[cap];
+		obj = new Node[cap];
+		facet = new int[cap];
 		n = 0;
 	}
 
 	public IList (Node root) {
-		ints = new Intersection[root.findIptsMax()];
-		System.out.println ("Created IList with capacity " + ints.length);
-		n = 0;
+		this (root.findIptsMax());
+		System.out.println ("Created IList with capacity " + t.length);
 	}
 
 	public void clear () {
 		n = 0;
-		for (int i=0; i<ints.length; i++) {
-			ints[i] = null;
-		}
 	}
 
-	public void add (Intersection i) {
-		ints[n++] = i;
+	public void add (double tv, Node o, int f) {
+		t[n] = tv;
+		obj[n] = o;
+		facet[n] = f;
+		n++;
+	}
+
+	public void setHit (double tv, Node o, int f) {
+		hit_t = tv;
+		hit_obj = o;
+		hit_facet = f;
 	}
 
 	public int countNonNull () {
 		int ct = 0;
 		for (int i=0; i<n; i++) {
-			if (ints[i] != null) ct++;
+			if (obj[i] != null) ct++;
 		}
 		return ct;
 	}
@@ -42,7 +61,7 @@ public class IList {
 		Intersection[] res = new Intersection[ct];
 		int w = 0;
 		for (int i=0; i<n; i++) {
-			if (ints[i] != null) res[w++] = ints[i];
+			if (obj[i] != null) res[w++] = new Intersection (t[i], obj[i], facet[i]);
 		}
 		Arrays.sort(res);
 		return res;
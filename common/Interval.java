@@ -0,0 +1,48 @@
+package common;
+public class Interval {
+
+	/* Bounds on the values a function (csg, mostly) takes over a region: lo <= f <= hi.
+	 * The infinite interval says nothing, and is what nodes return when they can't do better. */
+
+	public double lo, hi;
+
+	public Interval (double lo, double hi) {
+		this.lo = lo;
+		this.hi = hi;
+	}
+
+	public static Interval everything () {
+		return new Interval (Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/* Range of |v - c| - h for v in [v0, v1]. This is the shape of Rectangle's and Extrude's
+	 * csg along one axis. */
+	public static Interval slab (double v0, double v1, double c, double h) {
+		double far = Math.max (Math.abs (v0 - c), Math.abs (v1 - c));
+		double near = (v0 <= c && c <= v1) ? 0 : Math.min (Math.abs (v0 - c), Math.abs (v1 - c));
+		return new Interval (near - h, far - h);
+	}
+
+	/* Range of a*x + b*y + c*z + d over a box. */
+	public static Interval linear (BBox b, double a, double bb, double c, double d) {
+		double lo = d + Math.min (a*b.x0, a*b.x1) + Math.min (bb*b.y0, bb*b.y1) + Math.min (c*b.z0, c*b.z1);
+		double hi = d + Math.max (a*b.x0, a*b.x1) + Math.max (bb*b.y0, bb*b.y1) + Math.max (c*b.z0, c*b.z1);
+		return new Interval (lo, hi);
+	}
+
+	public Interval min (Interval o) {
+		return new Interval (Math.min (lo, o.lo), Math.min (hi, o.hi));
+	}
+
+	public Interval max (Interval o) {
+		return new Interval (Math.max (lo, o.lo), Math.max (hi, o.hi));
+	}
+
+	public Interval neg () {
+		return new Interval (-hi, -lo);
+	}
+
+	public String toString () {
+		return "[" + lo + ", " + hi + "]";
+	}
+}
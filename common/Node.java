@@ -1,25 +1,143 @@
 package common;
 import java.util.ArrayList;
 
-public abstract class Node {
+public abstract class Node implements Field {
 
 	public Node left, right, parent;
 	public Material mat;
+	public BBox bounds;	// null until buildBounds has been run on the finished tree
+	public String origin;	// the call in the source that made this node, e.g. "gear 12:5"; see ProfileNode
+
+	/* The scalar form is the one nodes implement, so that evaluating a tree doesn't allocate. */
+	public abstract double csg (double x, double y, double z);
+
+	public double csg (Float3 pt) {
+		return csg (pt.x, pt.y, pt.z);
+	}
+
+	public double eval (double x, double y, double z) {
+		return csg (x, y, z);
+	}
+
+	public Field local () {
+		return this;
+	}
+
+	/* Signed distance bound used for sphere tracing. It has the sign of csg, and its magnitude
+	 * never exceeds the true distance to the surface, so a ball of that radius around the point
+	 * can't cross the surface. csg itself is such a bound for most nodes; the others override. */
+	public double dist (double x, double y, double z) {
+		return csg (x, y, z);
+	}
 
-	public abstract double csg (Float3 pt);
 	public double dist (Float3 pt) {
-		return csg (pt);
+		return dist (pt.x, pt.y, pt.z);
 	}
 
 	public abstract Node copy ();
 
 	public abstract int findIptsMax ();
 
+	/* Box around this node's solid, in the coordinates csg is called with. Children's bounds
+	 * are already built when this is called. */
+	public abstract BBox findBounds ();
+
+	public final BBox buildBounds () {
+		if (left != null) left.buildBounds();
+		if (right != null) right.buildBounds();
+		if (this instanceof CSG) {
+			for (Node n : ((CSG) this).children) {
+				n.buildBounds();
+			}
+		}
+		bounds = findBounds();
+		return bounds;
+	}
+
+	public static final double STEP = 0.0001;	// for finite differences
+
+	/* Gradient of the csg function at pt, in this node's coordinates, written to out (which may
+	 * be pt itself, so implementations read all of pt before writing). It is left unnormalized.
+	 * Nodes that know their gradient analytically override this; everything else falls back
+	 * to finite differences, which costs four evaluations of the subtree. */
+	public void gradient (Float3 pt, Float3 out) {
+		double x = pt.x;
+		double y = pt.y;
+		double z = pt.z;
+		double f = csg (x, y, z);
+		out.set (csg (x + STEP, y, z) - f, csg (x, y + STEP, z) - f, csg (x, y, z + STEP) - f);
+	}
+
+	/* Maps a point (in place) from this node's coordinates to the coordinates its children are
+	 * evaluated in. */
+	public void toChild (Float3 pt) {
+	}
+
+	/* Maps the gradient g of child c's csg function (in place) back out to this node's coordinates. */
+	public void fromChild (Node c, Float3 g) {
+	}
+
+	/* Unit outward normal, written to out, at a point pt (in root coordinates) that lies on this
+	 * node's surface, such as a hit whose obj is this node. Only the path from the root to this
+	 * node is visited, so the cost is O(depth) instead of O(tree). Needs parent pointers. */
+	public final void surfaceNormal (Float3 pt, Float3 out) {
+		out.set (pt);
+		localPoint (out);
+		gradient (out, out);
+		Node n = this;
+		while (n.parent != null) {
+			n.parent.fromChild (n, out);
+			n = n.parent;
+		}
+		out.normalizeSelf();
+	}
+
+	private void localPoint (Float3 pt) {
+		if (parent == null) return;
+		parent.localPoint (pt);
+		parent.toChild (pt);
+	}
+
 	public final boolean onSurface (Float3 pt) {
-		return Math.abs(csg(pt)) < 1e-6;
+		return onSurface (pt.x, pt.y, pt.z);
+	}
+
+	public final boolean onSurface (double x, double y, double z) {
+		return Math.abs (csg (x, y, z)) < 1e-6;
+	}
+
+	/* Bounds on csg over the box b (in this node's coordinates). The default knows nothing. */
+	public Interval csgInterval (BBox b) {
+		return Interval.everything();
 	}
 
-	public final Intersection intersection (IList il, Ray r) {
+	/* A tree that looks the same as this one from inside r, with everything that can't make
+	 * any surface in r left out, or null if nothing of it shows in r at all. Unchanged subtrees
+	 * are shared with this tree, and the primitives keep their parent pointers into it, so
+	 * surfaceNormal works the same on hits found in the pruned tree. New nodes get their bounds
+	 * built but nothing else. Leaves are kept or dropped whole, by csgInterval over the part of
+	 * their box that r's box covers. */
+	public Node prune (Bundle r) {
+		if (bounds == null) {
+			return (csgInterval (r.box()).lo >= PRUNE_MARGIN) ? null : this;
+		}
+		if (r.misses (bounds)) {
+			return null;
+		}
+		return (csgInterval (r.box().intersect (bounds)).lo >= PRUNE_MARGIN) ? null : this;
+	}
+
+	/* How far csg must be from zero over a region before prune trusts that there is no surface
+	 * there; well above the tolerance of onSurface. */
+	public static final double PRUNE_MARGIN = BBox.EPS;
+
+	/* Finds the nearest hit on the surface of this (root) node and leaves it in il's hit_ fields.
+	 * Returns false if the ray misses. Hits are checked against il.field, which should be this
+	 * node's csg or something equivalent (a Tape of it); if it isn't set, csg is used. */
+	public final boolean intersection (IList il, Ray r) {
+		if (bounds != null && !bounds.hit (r)) {
+			return false;
+		}
 		il.clear();
 		allIntersections (il, r);
 
@@ -36,29 +154,93 @@ public abstract class Node {
 		return ints[idx];
 		*/
 
-		Intersection res = null;
+		int res = -1;
 		double mint = 123456789;
+		Field f = (il.field == null) ? this : il.field;
 		
 		for (int x=0; x<il.n; x++) {
-			Intersection i = il.ints[x];
-			if (i != null && i.t < mint) {
-				if (onSurface (r.get(i.t))) {
+			double t = il.t[x];
+			if (il.obj[x] != null && t < mint) {
+				if (Math.abs (f.eval (r.getX (t), r.getY (t), r.getZ (t))) < 1e-6) {
 					il.csg_ct ++;
-					mint = i.t;
-					res = i;
+					mint = t;
+					res = x;
 				}
 			}
 		}
 		il.n = 0;	// very important to reset!
-		if (res == null) {
-			return Intersection.NONE;
+		if (res == -1) {
+			return false;
 		}
-		return res;
+		il.setHit (il.t[res], il.obj[res], il.facet[res]);
+		return true;
 	}
 
 	public abstract void allIntersections (IList il, Ray r);
 
-	// something for the plane intersection; perhaps there should be an interface that gives a closed-form curve for the plane intersection that a subset of the nodes implement.
+	/* The third way to find a hit: march along the ray in steps of dist, which can't overshoot
+	 * the surface. Only needs dist, so it also works for nodes that have no ray intersection
+	 * code (Revolve). The march is limited to the part of the ray inside the root's box, and
+	 * CSG skips children whose boxes are far away, so deep trees cost little away from the model. */
+	public final boolean marchIntersection (IList il, Ray r) {
+		double t0 = 0;
+		double t1 = Double.MAX_VALUE;
+		if (bounds != null) {	// like the other engines, take the ray as a whole line within the box
+			t0 = bounds.tNear (r);
+			t1 = bounds.tFar (r);
+			if (t0 > t1) return false;
+		}
+		double eps = Prefs.current.MARCH_EPS;
+		int maxsteps = Prefs.current.MARCH_STEPS;
+		double dmag = r.dir.mag();
+		double t = t0;
+		for (int i=0; i<maxsteps && t <= t1; i++) {
+			double x = r.getX (t);
+			double y = r.getY (t);
+			double z = r.getZ (t);
+			double d = dist (x, y, z);
+			if (d < eps) {
+				il.csg_ct += i+1;
+				il.setHit (t, null, 0);
+				findSurface (x, y, z, il);
+				return true;
+			}
+			t += d / dmag;
+		}
+		il.csg_ct += maxsteps;
+		return false;
+	}
+
+	/* For a point on (or very near) the surface of this node, records in il's hit_obj and
+	 * hit_facet the primitive whose surface it is, the way allIntersections would have.
+	 * Leaves with more than one facet override this; composite nodes pass it down. */
+	public void findSurface (double x, double y, double z, IList il) {
+		il.hit_obj = this;
+		il.hit_facet = 0;
+	}
+
+	/* The alternative to intersection: every node reports the spans of the ray that are inside
+	 * it, CSG nodes merge their children's spans, and the first boundary left at the root is
+	 * the hit. Nothing needs to be checked against the root's csg afterwards. */
+	public final boolean spanIntersection (IList il, Ray r) {
+		if (bounds != null && !bounds.hit (r)) {
+			return false;
+		}
+		SpanList sl = il.spans;
+		sl.clear();
+		spans (sl, r);
+		int i = sl.first();
+		if (i == -1) {
+			return false;
+		}
+		il.setHit (sl.t[i], sl.obj[i], sl.facet[i]);
+		return true;
+	}
+
+	/* Puts the spans of r that are inside this node into out, which is empty on entry. */
+	public abstract void spans (SpanList out, Ray r);
+
+	// sections by a plane, in closed form, are PlaneSection's, which a subset of the nodes implement.
 	
 	public abstract String getString ();
 
@@ -4,4 +4,30 @@ public abstract class Node2D extends Node {
 
 	public abstract int allContourIntersections (IList il, Ray r);
 
+	/* The shape's outline as one curve, counterclockwise, for PlaneSection; null if it isn't
+	 * a single loop. */
+	public Curve outline () {
+		return null;
+	}
+
+	/* Squared distance from (px, py) to the segment ab, for the polygons' distance functions. */
+	protected static double edgeDistSq (double px, double py, Float3 a, Float3 b) {
+		double ex = b.x - a.x;
+		double ey = b.y - a.y;
+		double qx = px - a.x;
+		double qy = py - a.y;
+		double len = ex*ex + ey*ey;
+		double s = (len > 0) ? Math.max (0, Math.min (1, (qx*ex + qy*ey) / len)) : 0;
+		qx -= s*ex;
+		qy -= s*ey;
+		return qx*qx + qy*qy;
+	}
+
+	/* Whether a ray from (px, py) along +x crosses the segment ab. Counting these gives the
+	 * even-odd inside test. */
+	protected static boolean crossesRight (double px, double py, Float3 a, Float3 b) {
+		if ((a.y > py) == (b.y > py)) return false;
+		return px < a.x + (py - a.y) * (b.x - a.x) / (b.y - a.y);
+	}
+
 }
@@ -0,0 +1,13 @@
+package common;
+import java.util.ArrayList;
+public interface PlaneSection {
+
+	/* The nodes whose sections by a plane have a closed form. section adds to out the curves
+	 * that bound the section of this node's solid by the plane z = c, where m maps the node's
+	 * coordinates to those of the plane (m is the product of the transforms above it, say).
+	 * The curves are in the plane's x and y, counterclockwise round the solid, and the inside
+	 * is what an odd number of them go round. Circles and ellipses come out as such, unless they
+	 * have to be cut, when they are made polygons within tol of them. Returns false, with out
+	 * as it was, if this node can't do it for this plane; the csg function still can. */
+	public boolean section (Transform m, double c, double tol, ArrayList<Curve> out);
+}
@@ -14,9 +14,26 @@ public class  Polygon extends Node2D {
 	}
 
 
-	public double csg (Float3 pt) {
-		//
-		return 1;
+	/* Signed distance to the nearest edge of any path, inside by the even-odd rule, so that holes
+	 * come out right. */
+	public double csg (double x, double y, double z) {
+		double mind = Double.MAX_VALUE;
+		boolean in = false;
+		for (int path=0; path < ind.length; path++) {
+			for (int i=0; i < ind[path].length; i++) {
+				Float3 a = points[ind[path][i]];
+				Float3 b = points[ind[path][(i+1) % ind[path].length]];
+				mind = Math.min (mind, edgeDistSq (x, y, a, b));
+				if (crossesRight (x, y, a, b)) in = !in;
+			}
+		}
+		mind = Math.sqrt (mind);
+		return in ? -mind : mind;
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {	// contour hits all use facet -1
+		il.hit_obj = this;
+		il.hit_facet = -1;
 	}
 
 
@@ -25,45 +42,71 @@ public class  Polygon extends Node2D {
 	}
 
 	public void allIntersections (IList il, Ray r) {
-		Intersection i = Intersection.build (r, 0, this);
-		if (i != null) {
-			Float3 ipt = r.get (i.t);
-			if (csg (ipt) < 0) {
-				il.add (i);
+		if (Math.abs (r.dir.z) > 1e-8) {
+			double t = r.solveZ (0);
+			if (csg (r.getX (t), r.getY (t), 0) < 0) {
+				il.add (t, this, 0);
 			}
 		}
 	}
 
 	public int allContourIntersections (IList il, Ray r) {
-		Float3 b = new Float3 (r.start.x, r.start.y, 0);
-		Float3 e = new Float3 (r.dir.x, r.dir.y, 0);
-		double emag = e.mag();
-		e = e.normalize();
+		double dx = r.dir.x;
+		double dy = r.dir.y;
 		int ict = 0;
 		for (int path=0; path < ind.length; path++) {
 
 			for (int i=0; i < ind[path].length; i++) {
 				// get intersection of ray with segment
 				Float3 a = points[ind[path][i]];
-				Float3 v2 = points[ind[path][(i+1)%points.length]];
-				Float3 d = v2.sub(a);
-				double t = ((b.x-a.x)/e.y)*(1+d.y/d.x)/(1 - e.x*d.y/(d.x*e.y));
-				Float3 ipt = b.add (e.mul(t));
-				double s = -1;
-				if (Math.abs(d.x) > Math.abs(d.y)) {
-					s = (ipt.x - a.x) / d.x;
-				} else {
-					s = (ipt.y - a.y) / d.y;
-				}
-				if (s >= 0 && s <= 1) {
+				Float3 v2 = points[ind[path][(i+1) % ind[path].length]];
+				double ex = v2.x - a.x;
+				double ey = v2.y - a.y;
+				double denom = dx*ey - dy*ex;
+				if (Math.abs (denom) < 1e-12) continue;
+				double ax = a.x - r.start.x;
+				double ay = a.y - r.start.y;
+				double s = (ax*dy - ay*dx) / denom;
+				double t = (ax*ey - ay*ex) / denom;
+				if (s >= 0 && s <= 1 && t >= 0) {
 					ict++;
-					il.add (new Intersection (t, this, -1));
+					il.add (t, this, -1);
 				}
 			}
 		}
 		return ict;
 	}
 
+	public BBox findBounds () {
+		BBox b = new BBox (points[0].x, points[0].y, -BBox.BIG, points[0].x, points[0].y, BBox.BIG);
+		for (Float3 p : points) {
+			b = b.union (new BBox (p.x, p.y, 0, p.x, p.y, 0));
+		}
+		return b.pad (BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {	// even-odd over all paths, so holes come out right
+		double dx = r.dir.x;
+		double dy = r.dir.y;
+		for (int path=0; path < ind.length; path++) {
+			for (int i=0; i < ind[path].length; i++) {
+				Float3 a = points[ind[path][i]];
+				Float3 b = points[ind[path][(i+1) % ind[path].length]];
+				double ex = b.x - a.x;
+				double ey = b.y - a.y;
+				double denom = dx*ey - dy*ex;
+				if (Math.abs (denom) < 1e-12) continue;
+				double ax = a.x - r.start.x;
+				double ay = a.y - r.start.y;
+				double u = (ax*dy - ay*dx) / denom;
+				if (u >= 0 && u < 1) {
+					out.addBoundary ((ax*ey - ay*ex) / denom, this, -1);
+				}
+			}
+		}
+		out.sortBoundaries();
+	}
+
 	public String getString () {
 		return "Polygon";
 	}
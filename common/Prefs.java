@@ -16,6 +16,8 @@ public class Prefs {
 	public double	PHI_SCALE = -110.0;
 	public double	THETA_SCALE = 110.0;
 	public double	SCALE_BASE = 1.18;	// multiplier for zooming, per wheel click
+	public double	DRAG_FRAME_MS = 33;	// while dragging, the viewer lowers its resolution to draw frames this fast
+	public int		DRAG_MAX_DOWNSAMPLING = 16;	// ... but not below 1/16th
 	public Float3	DEFAULT_OBJ_COLOR = new Float3 (1.0, 1.0, 1.0);
 
 	public Font		EDITOR_FONT = new Font ("Courier", Font.PLAIN, 13);
@@ -24,6 +26,54 @@ public class Prefs {
 	/* RENDERING OPTIONS */
 	public Float3	AMBIENT = new Float3 (0.3, 0.3, 0.3);
 	public int		DOWNSAMPLING = 2;
+	public int		PROGRESSIVE_STEP = 8;	// the viewer shows every 8th pixel first, then refines to every 4th, ... 1 while idle; 1 is off
+	public boolean	ANTIALIAS = true;	// full resolution frames get extra rays at edge pixels (and smooth outlines)
+	public double	EDGE_DEPTH = 4;	// neighbours this many pixel widths apart in depth are on an edge, as are ones on different facets
+	public boolean	REPROJECT = true;	// while the view moves, the viewer reuses the last frame's hits where it can; see Raytrace.reproject
+	public int		RENDER_THREADS = Runtime.getRuntime().availableProcessors();
+	public int		RENDER_ENGINE = 0;	// Scene.SURFACE_FILTER, Scene.SPANS or Scene.SPHERE_TRACE
+	public int		TILE_SIZE = 16;	// edge length, in pixels, of the tiles handed to render threads
+	public boolean	OPTIMIZE_TREE = true;	// flatten and rebalance the CSG tree after interpreting; see frontend.Optimizer
+	public boolean	CSG_TAPE = false;	// check hits against a Tape of the root's csg instead of walking the tree (slower
+						// on the test models; see frontend.Test -fieldbench)
+	public boolean	CSG_CLASS = false;	// ... and against a class generated from it once that is compiled (needs a
+						// JDK, and the app's classes on java.class.path; see common.FieldCompiler)
+	public boolean	PRUNE_TILES = true;	// trace each tile with the CSG tree cut down to what can show in it, walked;
+						// CSG_TAPE and CSG_CLASS only cover tiles left whole; see Node.prune, render.TileWorker
+	public int		PRUNE_MIN_TILE = 4;	// ... splitting tiles into quarters down to this edge length
+	public boolean	SCREEN_BOUNDS = true;	// fill pixels outside the model's projected boxes with background, without rays; see render.Footprint
+	public double	MARCH_EPS = 1e-4;	// Scene.SPHERE_TRACE stops when this close to the surface; keep <= BBox.EPS
+	public int		MARCH_STEPS = 512;	// ... or gives up after this many steps
+	public boolean	PROFILE = false;	// time the tree by source line and frames by pixel, which slows them down a lot; see common.ProfileNode
+	public int		PROFILE_TOP = 10;	// ... and list this many of the most expensive lines after each frame
+
+	/* SLICER OPTIONS */
+	public double	SLICE_LAYER = 0.2;	// layer height, mm
+	public boolean	SLICE_ADAPTIVE = true;	// instead, vary it with the slope of the surface, from SLICE_LAYER_MIN to SLICE_LAYER_MAX; see slice.AdaptiveLayers
+	public double	SLICE_LAYER_MIN = 0.1;
+	public double	SLICE_LAYER_MAX = 0.3;
+	public double	SLICE_CUSP = 0.15;	// ... so that the steps stand no further than this out from the surface, mm
+	public int		SLICE_ADAPT_RAYS = 64;	// ... which is sampled by a grid of this many upright rays a side
+	public boolean	SLICE_EXACT = true;	// find contours from the primitives' sections by the plane where the model allows, circles as polygons within SLICE_TOLERANCE; see slice.SectionWorker
+	public double	SLICE_CELL = 0.1;	// elsewhere they are found on a grid of cells this size; see slice.SliceWorker
+	public double	SLICE_TOLERANCE = 0.005;	// ... whose points along the way are thinned out as long as that moves the outline less than this
+	public int		SLICE_BLOCK = 16;	// ... looked at in blocks of this many cells square, which are skipped away from the surface
+	public int		SLICE_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/* G-CODE OPTIONS */
+	public double	GCODE_WIDTH = 0.4;	// extrusion width, mm; about the nozzle's
+	public int		GCODE_PERIMETERS = 2;	// walls round each contour
+	public double	GCODE_INFILL = 0.2;	// fraction of the inside filled, with lines across it; 0 for none
+	public boolean	GCODE_INFILL_CSG = true;	// ... leaving out strokes whose middle the model's csg puts outside it, as well as pairing crossings even-odd
+	public double	GCODE_FILAMENT = 1.75;	// diameter, mm
+	public double	GCODE_FEED = 40;	// printing speed, mm/s
+	public double	GCODE_TRAVEL = 120;	// ... and between paths
+	public double	GCODE_RETRACT = 1;	// filament pulled back for travels longer than a few widths, mm
+	public double	GCODE_BED_X = 110;	// where on the bed the middle of the model's box goes, mm from the printer's origin
+	public double	GCODE_BED_Y = 110;
+	public int		GCODE_NOZZLE_TEMP = 210;	// heated to before printing and turned off after, degrees C; 0 to leave it alone
+	public int		GCODE_BED_TEMP = 60;	// ... and the bed's
+	public int		GCODE_IN_FLIGHT = 0;	// layers being worked on at once, which bounds the memory used; 0 for two per SLICE_THREADS
 
 	public static Prefs current = new Prefs();
 
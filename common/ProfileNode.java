@@ -0,0 +1,240 @@
+package common;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+public class ProfileNode extends Node {
+
+	/* Counts the calls into its child (left) and the time spent in them, for profiling a tree
+	 * by the source that made its parts (Node.origin). instrument puts one above every 3D node
+	 * whose origin differs from that of the nearest labelled node above it, so the time of a
+	 * call in the source is what its wrapper measured, less what the wrappers below it did.
+	 * csg and dist calls count as evaluations, allIntersections and spans as ray queries.
+	 * Pruned copies share the counters of the node they were pruned from. Wrappers are
+	 * invisible otherwise: bounds, gradients and hits are all the child's.
+	 * The timing itself takes time, which the wrapper above would see as its own; so the
+	 * cost of it per call (measured by instrument) is taken off there too. */
+
+	public String label;	// what the counts are reported under
+	public LongAdder evals, eval_ns;
+	public LongAdder rays, ray_ns;
+
+	private static double overhead;	// ns per call that timing it adds
+
+	public ProfileNode (Node n, String label) {
+		this.label = label;
+		evals = new LongAdder();
+		eval_ns = new LongAdder();
+		rays = new LongAdder();
+		ray_ns = new LongAdder();
+		wrap (n);
+	}
+
+	private ProfileNode (ProfileNode other, Node n) {	// for prune
+		label = other.label;
+		origin = other.origin;
+		evals = other.evals;
+		eval_ns = other.eval_ns;
+		rays = other.rays;
+		ray_ns = other.ray_ns;
+		left = n;
+		bounds = n.bounds;
+	}
+
+	private void wrap (Node n) {
+		left = n;
+		origin = n.origin;
+		mat = n.mat;
+		bounds = n.bounds;
+		parent = n.parent;
+		n.parent = this;
+	}
+
+	public Node copy () {
+		return new ProfileNode (this, left);
+	}
+
+	public double csg (double x, double y, double z) {
+		long t = System.nanoTime();
+		double v = left.csg (x, y, z);
+		eval_ns.add (System.nanoTime() - t);
+		evals.increment();
+		return v;
+	}
+
+	public double dist (double x, double y, double z) {
+		long t = System.nanoTime();
+		double v = left.dist (x, y, z);
+		eval_ns.add (System.nanoTime() - t);
+		evals.increment();
+		return v;
+	}
+
+	public void allIntersections (IList il, Ray r) {
+		long t = System.nanoTime();
+		left.allIntersections (il, r);
+		ray_ns.add (System.nanoTime() - t);
+		rays.increment();
+	}
+
+	public void spans (SpanList out, Ray r) {
+		long t = System.nanoTime();
+		left.spans (out, r);
+		ray_ns.add (System.nanoTime() - t);
+		rays.increment();
+	}
+
+	public void gradient (Float3 pt, Float3 out) {
+		left.gradient (pt, out);
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {
+		left.findSurface (x, y, z, il);
+	}
+
+	public int findIptsMax () {
+		return left.findIptsMax();
+	}
+
+	public BBox findBounds () {
+		return left.bounds;
+	}
+
+	public Interval csgInterval (BBox b) {
+		return left.csgInterval (b);
+	}
+
+	public Node prune (Bundle r) {
+		Node l = left.prune (r);
+		if (l == null) return null;
+		if (l == left) return this;
+		return new ProfileNode (this, l);
+	}
+
+	public long nanos () {
+		return eval_ns.sum() + ray_ns.sum();
+	}
+
+	public void reset () {
+		evals.reset();
+		eval_ns.reset();
+		rays.reset();
+		ray_ns.reset();
+	}
+
+	public String getString () {
+		return "Profile " + label;
+	}
+
+	/* Wraps the nodes of the tree at root (in place) where their origin changes, and returns
+	 * the new root. Only the 3D part of the tree is wrapped, as extrusions need their children
+	 * to be 2D nodes; a 2D subtree counts towards the extrusion above it. */
+	public static Node instrument (Node root) {
+		overhead = calibrate();
+		Node r = instrument (root, null);
+		r.parent = null;
+		return r;
+	}
+
+	private static Node instrument (Node n, String outer) {
+		String here = (n.origin != null) ? n.origin : outer;
+		if (n instanceof CSG) {
+			Node[] ch = ((CSG) n).children;
+			for (int i=0; i<ch.length; i++) {
+				ch[i] = instrument (ch[i], here);
+			}
+		} else if (n instanceof TransformNode && !(n.left instanceof Node2D)) {
+			n.left = instrument (n.left, here);
+		}
+		if (n instanceof Node2D || n.origin == null || n.origin.equals (outer)) {
+			return n;
+		}
+		return new ProfileNode (n, n.origin);
+	}
+
+	/* What the bookkeeping of csg above costs, per call, at best of a few tries. */
+	private static double calibrate () {
+		LongAdder ns = new LongAdder(), ct = new LongAdder();
+		int n = 100000;
+		long best = Long.MAX_VALUE;
+		for (int k=0; k<5; k++) {
+			long t0 = System.nanoTime();
+			for (int i=0; i<n; i++) {
+				long t = System.nanoTime();
+				ns.add (System.nanoTime() - t);
+				ct.increment();
+			}
+			best = Math.min (best, System.nanoTime() - t0);
+		}
+		return (double) best / n;
+	}
+
+	/* Zeroes the counts of every wrapper in the tree. */
+	public static void reset (Node n) {
+		if (n instanceof ProfileNode) {
+			((ProfileNode) n).reset();
+		}
+		for (Node c : children (n)) {
+			reset (c);
+		}
+	}
+
+	/* The wrappers in the tree, with their counts summed by label, and the time of each less
+	 * that of the wrappers below it; as lines of text, the top n by time first. */
+	public static String report (Node root, int n) {
+		HashMap<String, long[]> sums = new HashMap<String, long[]>();	// self ns, evals, rays
+		tally (root, sums);
+		long total = 0;
+		for (long[] v : sums.values()) {
+			total += v[0];
+		}
+		ArrayList<String> labels = new ArrayList<String> (sums.keySet());
+		final HashMap<String, long[]> s = sums;
+		Collections.sort (labels, new Comparator<String> () {
+			public int compare (String a, String b) {
+				return Long.compare (s.get (b)[0], s.get (a)[0]);
+			}
+		});
+		StringBuilder sb = new StringBuilder ();
+		sb.append ("Profile: " + (total / 1000000) + " ms in the tree (timing it took " + String.format ("%.0f", overhead) + " ns a call more), " + labels.size() + " sources; the most expensive:");
+		for (int i=0; i<Math.min (n, labels.size()); i++) {
+			long[] v = sums.get (labels.get (i));
+			sb.append (String.format ("\n%5.1f%%  %7.1f ms  %-24s %d evals, %d ray queries", 100.0 * v[0] / Math.max (1, total), v[0] / 1e6, labels.get (i), v[1], v[2]));
+		}
+		return sb.toString();
+	}
+
+	/* Adds the self time of the wrappers under n to sums, and returns the time of those of
+	 * them that no other wrapper is above, timing included. */
+	private static long tally (Node n, HashMap<String, long[]> sums) {
+		long below = 0;
+		for (Node c : children (n)) {
+			below += tally (c, sums);
+		}
+		if (!(n instanceof ProfileNode)) {
+			return below;
+		}
+		ProfileNode p = (ProfileNode) n;
+		long[] v = sums.get (p.label);
+		if (v == null) {
+			v = new long[3];
+			sums.put (p.label, v);
+		}
+		long all = p.nanos();
+		long calls = p.evals.sum() + p.rays.sum();
+		v[0] += Math.max (0, all - below);
+		v[1] += p.evals.sum();
+		v[2] += p.rays.sum();
+		return all + (long) (calls * overhead);
+	}
+
+	private static Node[] children (Node n) {
+		if (n instanceof CSG) {
+			return ((CSG) n).children;
+		} else if (n instanceof ProfileNode || n instanceof TransformNode) {
+			return new Node[] {n.left};
+		}
+		return new Node[0];
+	}
+}
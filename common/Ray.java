@@ -3,15 +3,48 @@ public class  Ray {
 
 	public Float3 start, dir;
 
+	/* If not null, this is the ray for pixel (px, py) of frame; see RayFrame. Code that moves
+	 * the ray some other way must set frame to null. */
+	public RayFrame frame;
+	public double px, py;
+
+	private Ray scratch;
+
 	public Ray (Float3 s, Float3 d) {
 		start = s;
 		dir = d;
 	}
 
+	public Ray () {
+		this (new Float3(), new Float3());
+	}
+
+	/* A second ray belonging to this one, for a node that needs to hand a transformed copy of
+	 * it to its child. Rays stay on one thread, and each child call finishes before the next
+	 * one needs it, so one per level is enough and nothing is allocated after the first ray. */
+	public Ray scratch () {
+		if (scratch == null) {
+			scratch = new Ray();
+		}
+		return scratch;
+	}
+
 	public Float3 get (double t) {
 		return start.add (dir.mul(t));
 	}
 
+	public double getX (double t) {
+		return start.x + dir.x*t;
+	}
+
+	public double getY (double t) {
+		return start.y + dir.y*t;
+	}
+
+	public double getZ (double t) {
+		return start.z + dir.z*t;
+	}
+
 	public double solveX (double x) {
 		return (x - start.x) / dir.x;
 	}
@@ -0,0 +1,62 @@
+package common;
+public class RayFrame {
+
+	/* The rays of one frame of an orthographic camera: all of them have direction dir, and
+	 * the one for pixel (px, py) starts at o + ex*px + ey*py. Since that is affine in the pixel,
+	 * a transform maps a whole frame to another frame, which a TransformNode can work out once
+	 * and use for every ray, instead of transforming each ray's start and direction. Frames
+	 * are never changed after they are made, so threads can share them. */
+
+	public final Float3 o, ex, ey, dir;
+	public final RayFrame source;	// the frame this was transformed from, or null
+	public final double ix, iy, iz;	// 1/dir, for slab tests
+
+	public RayFrame (Float3 o, Float3 ex, Float3 ey, Float3 dir) {
+		this (o, ex, ey, dir, null);
+	}
+
+	private RayFrame (Float3 o, Float3 ex, Float3 ey, Float3 dir, RayFrame source) {
+		this.o = o;
+		this.ex = ex;
+		this.ey = ey;
+		this.dir = dir;
+		this.source = source;
+		ix = 1 / dir.x;
+		iy = 1 / dir.y;
+		iz = 1 / dir.z;
+	}
+
+	public RayFrame transform (Transform t) {
+		return new RayFrame (t.transformPoint (o), t.transformVec (ex), t.transformVec (ey), t.transformVec (dir), this);
+	}
+
+	/* Sets out to the ray for pixel (px, py) of this frame. */
+	public Ray ray (double px, double py, Ray out) {
+		out.frame = this;
+		out.px = px;
+		out.py = py;
+		out.start.set (o.x + ex.x*px + ey.x*py, o.y + ex.y*px + ey.y*py, o.z + ex.z*px + ey.z*py);
+		out.dir.set (dir);
+		return out;
+	}
+
+	/* Moves r, a ray of this frame, dx pixels to the right; two rays along a row differ by a
+	 * multiple of ex and nothing else. */
+	public void advance (Ray r, double dx) {
+		r.px += dx;
+		r.start.set (r.start.x + ex.x*dx, r.start.y + ex.y*dx, r.start.z + ex.z*dx);
+	}
+
+	/* True if f has the same rays. */
+	public boolean sameAs (RayFrame f) {
+		return same (o, f.o) && same (ex, f.ex) && same (ey, f.ey) && same (dir, f.dir);
+	}
+
+	private static boolean same (Float3 a, Float3 b) {
+		return a.x == b.x && a.y == b.y && a.z == b.z;
+	}
+
+	public String toString () {
+		return "RayFrame " + o + " + x*" + ex + " + y*" + ey + " --> " + dir;
+	}
+}
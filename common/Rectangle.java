@@ -19,23 +19,42 @@ public class  Rectangle extends Node2D {
 		return new Rectangle (xs, ys);
 	}
 
-	public double csg (Float3 pt) {
-		double x = Math.abs(pt.x - xs/2) - xs/2;
-		double y = Math.abs(pt.y - ys/2) - ys/2;
-		return Math.max(x,y);
+	public double csg (double x, double y, double z) {
+		double dx = Math.abs(x - xs/2) - xs/2;
+		double dy = Math.abs(y - ys/2) - ys/2;
+		return Math.max(dx,dy);
+	}
+
+	public double dist (double x, double y, double z) {
+		// csg is already right inside and beside the edges; off the corners it is the distance
+		// to the nearest corner instead.
+		double dx = Math.abs(x - xs/2) - xs/2;
+		double dy = Math.abs(y - ys/2) - ys/2;
+		if (dx > 0 && dy > 0) {
+			return Math.sqrt (dx*dx + dy*dy);
+		}
+		return Math.max (dx, dy);
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {	// same facets as testX and testY
+		double dx = Math.abs(x - xs/2) - xs/2;
+		double dy = Math.abs(y - ys/2) - ys/2;
+		il.hit_obj = this;
+		if (dx > dy) {
+			il.hit_facet = (x < xs/2) ? 0 : 2;
+		} else {
+			il.hit_facet = (y < ys/2) ? 1 : 3;
+		}
 	}
 
-	public double dist (Float3 pt) {
-		if (pt.x >= 0 && pt.x <= xs) {
-			return Math.abs (pt.y - ys/2) - ys/2;
-		} else if (pt.y >= 0 && pt.y <= ys) {
-			return Math.abs (pt.x - xs/2) - xs/2;
+	public void gradient (Float3 pt, Float3 out) {
+		double x = Math.abs(pt.x - xs/2) - xs/2;
+		double y = Math.abs(pt.y - ys/2) - ys/2;
+		if (x > y) {
+			out.set (Math.signum (pt.x - xs/2), 0, 0);
+		} else {
+			out.set (0, Math.signum (pt.y - ys/2), 0);
 		}
-		// we're in one of the four corner regions. We'll shift these to be centered all at the origin
-		// and compute the distance from the origin.
-		double x = pt.x >= xs ? pt.x-xs : pt.x;
-		double y = pt.y >= ys ? pt.y-ys : pt.y;
-		return Math.sqrt (x*x + y*y);
 	}
 
 	public int findIptsMax () {
@@ -43,50 +62,93 @@ public class  Rectangle extends Node2D {
 	}
 
 	public void allIntersections (IList il, Ray r) {
-		Intersection i = Intersection.build (r, 0, this);
-		if (i != null) {
-			Float3 ipt = r.get (i.t);
-			if (csg (ipt) < 0) {
-				il.add (i);
+		if (Math.abs (r.dir.z) > 1e-8) {
+			double t = r.solveZ (0);
+			if (csg (r.getX (t), r.getY (t), 0) < 0) {
+				il.add (t, this, 0);
 			}
 		}
 	}
 
-	private Intersection testX (double x, Ray r) {
+	private void testX (double x, Ray r, IList il) {
 		double t = r.solveX (x);
-		double y = r.get(t).y;
+		double y = r.getY (t);
 		if (y >= 0 && y <= ys) {
-			return new Intersection (t, this, x==0? 0 : 2);
+			il.add (t, this, x==0? 0 : 2);
 		}
-		return null;
 	}
 
-	private Intersection testY (double y, Ray r) {
+	private void testY (double y, Ray r, IList il) {
 		double t = r.solveY (y);
-		double x = r.get(t).x;
+		double x = r.getX (t);
 		if (x >= 0 && x <= xs) {
-			return new Intersection (t, this, y==0 ? 1 : 3);
+			il.add (t, this, y==0 ? 1 : 3);
 		}
-		return null;
 	}
 
 	public int allContourIntersections (IList il, Ray r) {
 		int nsave = il.n;
 		if (Math.abs(r.dir.x) > 1e-8) {
-			Intersection x0 = testX (0, r);
-			Intersection xxs = testX (xs, r);
-			if (x0 != null) il.add (x0);
-			if (xxs != null) il.add (xxs);
+			testX (0, r, il);
+			testX (xs, r, il);
 		}
 		if (Math.abs(r.dir.y) > 1e-8) {
-			Intersection y0 = testY (0, r);
-			Intersection yys = testY (ys, r);
-			if (y0 != null) il.add (y0);
-			if (yys != null) il.add (yys);
+			testY (0, r, il);
+			testY (ys, r, il);
 		}
 		return il.n - nsave;
 	}
 
+	public Curve outline () {
+		return Curve.polygon (new double[] {0, xs, xs, 0}, new double[] {0, 0, ys, ys}, 4).orient();
+	}
+
+	public Interval csgInterval (BBox b) {
+		return Interval.slab (b.x0, b.x1, xs/2, xs/2).max (Interval.slab (b.y0, b.y1, ys/2, ys/2));
+	}
+
+	public BBox findBounds () {
+		return new BBox (0, 0, -BBox.BIG, xs, ys, BBox.BIG).pad (BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {	// slab test in x and y; facets match testX and testY
+		double t0 = Double.NEGATIVE_INFINITY;
+		double t1 = Double.POSITIVE_INFINITY;
+		int f0 = 0;
+		int f1 = 0;
+		if (Math.abs (r.dir.x) < 1e-12) {
+			if (r.start.x < 0 || r.start.x > xs) return;
+		} else {
+			double ta = r.solveX (0);
+			double tb = r.solveX (xs);
+			boolean flip = ta > tb;
+			if (Math.min (ta, tb) > t0) {
+				t0 = Math.min (ta, tb);
+				f0 = flip ? 2 : 0;
+			}
+			if (Math.max (ta, tb) < t1) {
+				t1 = Math.max (ta, tb);
+				f1 = flip ? 0 : 2;
+			}
+		}
+		if (Math.abs (r.dir.y) < 1e-12) {
+			if (r.start.y < 0 || r.start.y > ys) return;
+		} else {
+			double ta = r.solveY (0);
+			double tb = r.solveY (ys);
+			boolean flip = ta > tb;
+			if (Math.min (ta, tb) > t0) {
+				t0 = Math.min (ta, tb);
+				f0 = flip ? 3 : 1;
+			}
+			if (Math.max (ta, tb) < t1) {
+				t1 = Math.max (ta, tb);
+				f1 = flip ? 1 : 3;
+			}
+		}
+		out.add (t0, this, f0, t1, this, f1);
+	}
+
 	public String getString () {
 		return "Rectangle, (xs,ys) = " + xs + ", " + ys;
 	}
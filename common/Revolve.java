@@ -9,12 +9,16 @@ public class  Revolve extends Node {
 		return new Revolve();
 	}
 
-	public double csg (Float3 pt) {
-		return 1;
+	/* The child is a 2D shape in the xy-plane, with x >= 0, spun about the z-axis: its x becomes
+	 * the distance from the axis and its y becomes z. That map doesn't stretch distances, so
+	 * the child's distance bound carries over. There is no ray intersection code; only the
+	 * marching engine can render this. */
+	public double csg (double x, double y, double z) {
+		return left.csg (Math.sqrt (x*x + y*y), z, 0);
 	}
 
-	public double dist (Float3 pt) {
-		return 1;
+	public double dist (double x, double y, double z) {
+		return left.dist (Math.sqrt (x*x + y*y), z, 0);
 	}
 
 	public int findIptsMax () {
@@ -24,6 +28,35 @@ public class  Revolve extends Node {
 	public void allIntersections (IList il, Ray r) {
 	}
 
+	/* The box the child sees: distance from the axis along x, z along y. */
+	private static BBox childBox (BBox b) {
+		return new BBox (b.minRadius(), b.z0, -BBox.EPS, b.maxRadius(), b.z1, BBox.EPS);
+	}
+
+	public Interval csgInterval (BBox b) {
+		return left.csgInterval (childBox (b));
+	}
+
+	public Node prune (Bundle r) {	// the map to the child isn't affine, so boxes it is
+		Node l = left.prune (Bundle.of (childBox (r.box())));
+		if (l == null) return null;
+		if (l == left) return this;
+		Node res = copy();
+		res.left = l;
+		res.mat = mat;
+		res.bounds = res.findBounds();
+		return res;
+	}
+
+	public BBox findBounds () {	// the child's x is the radius and its y becomes z
+		BBox b = left.bounds;
+		double r = Math.max (Math.abs (b.x0), Math.abs (b.x1));
+		return new BBox (-r, -r, b.y0, r, r, b.y1);
+	}
+
+	public void spans (SpanList out, Ray r) {
+	}
+
 	public String getString () {
 		return "Revolve";
 	}
@@ -1,10 +1,11 @@
 package common ;
 public class  SimplePolygon extends Node2D {
 
-	// single closed loop, no holes. May be concave. Vertices ordered by right hand rule.
+	// single closed loop, no holes. May be concave. Vertices may go either way round; normals
+	// are made to point outward regardless.
 	public Float3[] points;
 	private Float3[] vecs;
-	private Float3[] normals;
+	Float3[] normals;	// outward, unit length; Tape reads these too
 	private double[] veclens;
 
 	public SimplePolygon (Float3[] pts) {
@@ -12,7 +13,13 @@ public class  SimplePolygon extends Node2D {
 		vecs = new Float3[pts.length];
 		veclens = new double[pts.length];
 		normals = new Float3[pts.length];
-		Float3 up = new Float3 (0,0,1);
+		double area = 0;	// twice the signed area; negative when the points go clockwise
+		for (int i=0; i<points.length; i++) {
+			Float3 a = points[i];
+			Float3 b = points[(i+1)%points.length];
+			area += a.x*b.y - b.x*a.y;
+		}
+		Float3 up = new Float3 (0, 0, area < 0 ? 1 : -1);
 		for (int i=0; i<points.length; i++) {
 			vecs[i] = points[(i+1)%points.length].sub(points[i]);
 			normals[i] = up.cross(vecs[i]).normalize();
@@ -24,63 +31,145 @@ public class  SimplePolygon extends Node2D {
 		return new SimplePolygon (points);
 	}
 
-	public double csg (Float3 pt) {
+	public double csg (double x, double y, double z) {
 		// minimum of distances to each segment.
 		double maxd = -1e20;
-		Float3 p = new Float3 (pt.x, pt.y, 0);
 		for (int i=0; i<points.length; i++) {
-			Float3 q = p.sub(points[i]);
-			double d = q.dot (normals[i]);
+			double d = (x - points[i].x)*normals[i].x + (y - points[i].y)*normals[i].y;
 			maxd = Math.max (d, maxd);
 		}
 		return maxd;
 	}
 			
+	public void gradient (Float3 pt, Float3 out) {	// normal of whichever edge csg picked
+		double maxd = -1e20;
+		int maxi = 0;
+		for (int i=0; i<points.length; i++) {
+			double d = (pt.x - points[i].x)*normals[i].x + (pt.y - points[i].y)*normals[i].y;
+			if (d > maxd) {
+				maxd = d;
+				maxi = i;
+			}
+		}
+		out.set (normals[maxi]);
+	}
+
+	/* csg only works out for convex polygons; this is the exact signed distance to the outline,
+	 * inside by the even-odd rule, which is right for concave ones too. */
+	public double dist (double x, double y, double z) {
+		double mind = Double.MAX_VALUE;
+		boolean in = false;
+		for (int i=0; i<points.length; i++) {
+			Float3 a = points[i];
+			Float3 b = points[(i+1)%points.length];
+			mind = Math.min (mind, edgeDistSq (x, y, a, b));
+			if (crossesRight (x, y, a, b)) in = !in;
+		}
+		mind = Math.sqrt (mind);
+		return in ? -mind : mind;
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {	// the nearest edge is the facet
+		double mind = Double.MAX_VALUE;
+		int mini = 0;
+		for (int i=0; i<points.length; i++) {
+			double d = edgeDistSq (x, y, points[i], points[(i+1)%points.length]);
+			if (d < mind) {
+				mind = d;
+				mini = i;
+			}
+		}
+		il.hit_obj = this;
+		il.hit_facet = mini;
+	}
+
 	public int findIptsMax () {
 		return points.length;
 	}
 
 	public void allIntersections (IList il, Ray r) {
-		Intersection i = Intersection.build (r, 0, this);
-		if (i != null) {
-			Float3 ipt = r.get (i.t);
-			if (csg (ipt) < 0) {
-				il.add (i);
+		if (Math.abs (r.dir.z) > 1e-8) {
+			double t = r.solveZ (0);
+			if (csg (r.getX (t), r.getY (t), 0) < 0) {
+				il.add (t, this, 0);
 			}
 		}
 	}
 
 	public int allContourIntersections (IList il, Ray r) {
-		Float3 a = new Float3 (r.start.x, r.start.y, 0);
-		Float3 d = new Float3 (r.dir.x, r.dir.y, 0);
-		double dmag = d.mag();
-		d = d.normalize();
+		double ax = r.start.x;
+		double ay = r.start.y;
+		double dmag = Math.sqrt (r.dir.x*r.dir.x + r.dir.y*r.dir.y);
+		double dx = r.dir.x / dmag;
+		double dy = r.dir.y / dmag;
 		int ict = 0;
+		// a segment is crossed if its ends are on different sides of the ray's line, a corner on
+		// the line counting as on the left; so a ray through a corner crosses one of the two
+		// segments there, or neither or both if it only touches it, and never counts it twice
+		double s0 = (points[0].x - ax)*dy - (points[0].y - ay)*dx;
 		for (int i=0; i < points.length; i++) {
-			// get intersection of ray with segment
-			Float3 q = a.sub(points[i]);
-			double sy = q.dot(normals[i]);	// length of projection of position vec onto normal
-			double dy = d.dot(normals[i]);	// length of projection of direction vec onto normal
-			if (Math.abs(dy) > 1e-8) {	// nonparallel
-				double t = -sy/dy;
+			Float3 b = points[(i+1)%points.length];
+			double s1 = (b.x - ax)*dy - (b.y - ay)*dx;
+			if ((s0 >= 0) != (s1 >= 0)) {
+				double f = s0 / (s0 - s1);	// along the segment
+				double px = points[i].x + f*vecs[i].x;
+				double py = points[i].y + f*vecs[i].y;
+				double t = (px - ax)*dx + (py - ay)*dy;
 				if (t >= 0) {
-					Float3 proj = a.add(d.mul(t)).sub(points[i]);
-					double s = 0;
-					if (Math.abs(proj.x) > Math.abs(proj.y)) {
-						s = proj.x / vecs[i].x;
-					} else {
-						s = proj.y / vecs[i].y;
-					}
-					if (s >= 0 && s <= 1) {
-						ict++;
-						il.add (new Intersection (t/dmag, this, i));
-					}
+					ict++;
+					il.add (t/dmag, this, i);
 				}
 			}
+			s0 = s1;
 		}
 		return ict;
 	}
 
+	public Curve outline () {
+		double[] x = new double[points.length], y = new double[points.length];
+		for (int i=0; i<points.length; i++) {
+			x[i] = points[i].x;
+			y[i] = points[i].y;
+		}
+		return Curve.polygon (x, y, points.length).orient();
+	}
+
+	public Interval csgInterval (BBox b) {	// each edge's term is linear, so its range is exact
+		Interval res = null;
+		for (int i=0; i<points.length; i++) {
+			Float3 n = normals[i];
+			Interval e = Interval.linear (b, n.x, n.y, 0, -(points[i].x*n.x + points[i].y*n.y));
+			res = (res == null) ? e : res.max (e);
+		}
+		return res;
+	}
+
+	public BBox findBounds () {
+		BBox b = new BBox (points[0].x, points[0].y, -BBox.BIG, points[0].x, points[0].y, BBox.BIG);
+		for (Float3 p : points) {
+			b = b.union (new BBox (p.x, p.y, 0, p.x, p.y, 0));
+		}
+		return b.pad (BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {	// crossings with every edge, paired up by the even-odd rule
+		double dx = r.dir.x;
+		double dy = r.dir.y;
+		for (int i=0; i<points.length; i++) {
+			double ex = vecs[i].x;
+			double ey = vecs[i].y;
+			double denom = dx*ey - dy*ex;
+			if (Math.abs (denom) < 1e-12) continue;
+			double ax = points[i].x - r.start.x;
+			double ay = points[i].y - r.start.y;
+			double u = (ax*dy - ay*dx) / denom;
+			if (u >= 0 && u < 1) {
+				out.addBoundary ((ax*ey - ay*ex) / denom, this, i);
+			}
+		}
+		out.sortBoundaries();
+	}
+
 	public String getString () {
 		return "Polygon";
 	}
@@ -0,0 +1,188 @@
+package common;
+public class SpanList {
+
+	/* The parts of a ray that are inside a solid, as a sorted list of boundaries. Even entries
+	 * enter the solid and odd entries leave it; obj and facet record which primitive surface
+	 * each boundary lies on, like an Intersection does. t may be infinite for solids that are
+	 * unbounded along the ray (2D objects before they are extruded). */
+
+	public double[] t;
+	public Node[] obj;
+	public int[] facet;
+	public int n;	// number of boundaries
+
+	private double[] st;	// swap space for combine
+	private Node[] so;
+	private int[] sf;
+
+	private SpanList scratch;	// for the next level down when combining children
+
+	public SpanList () {
+		this (8);
+	}
+
+	public SpanList (int cap) {
+		t = new double[cap];
+		obj = new Node[cap];
+		facet = new int[cap];
+		st = new double[cap];
+		so = new Node[cap];
+		sf = new int[cap];
+	}
+
+	public void clear () {
+		n = 0;
+	}
+
+	/* A second list that CSG nodes can gather a child's spans into. It is kept around, so rays
+	 * after the first don't allocate. */
+	public SpanList scratch () {
+		if (scratch == null) {
+			scratch = new SpanList (t.length);
+		}
+		scratch.clear();
+		return scratch;
+	}
+
+	private void ensureCap (int cap) {
+		if (cap <= t.length) return;
+		cap = Math.max (cap, 2*t.length);
+		double[] nt = new double[cap];
+		Node[] no = new Node[cap];
+		int[] nf = new int[cap];
+		System.arraycopy (t, 0, nt, 0, n);
+		System.arraycopy (obj, 0, no, 0, n);
+		System.arraycopy (facet, 0, nf, 0, n);
+		t = nt;
+		obj = no;
+		facet = nf;
+		st = new double[cap];
+		so = new Node[cap];
+		sf = new int[cap];
+	}
+
+	/* Appends a span. Spans must be added in order and must not overlap. */
+	public void add (double t0, Node o0, int f0, double t1, Node o1, int f1) {
+		if (t1 <= t0) return;
+		addBoundary (t0, o0, f0);
+		addBoundary (t1, o1, f1);
+	}
+
+	/* Appends a single boundary, e.g. an edge crossing. Use sortBoundaries afterwards when
+	 * they weren't added in order. */
+	public void addBoundary (double tv, Node o, int f) {
+		ensureCap (n+1);
+		t[n] = tv;
+		obj[n] = o;
+		facet[n] = f;
+		n++;
+	}
+
+	/* Sorts the boundaries on t and drops an unpaired last one, which turns a list of
+	 * crossings into spans by the even-odd rule. Lists are short, so insertion sort it is. */
+	public void sortBoundaries () {
+		for (int i=1; i<n; i++) {
+			double tv = t[i];
+			Node o = obj[i];
+			int f = facet[i];
+			int j = i-1;
+			while (j >= 0 && t[j] > tv) {
+				t[j+1] = t[j];
+				obj[j+1] = obj[j];
+				facet[j+1] = facet[j];
+				j--;
+			}
+			t[j+1] = tv;
+			obj[j+1] = o;
+			facet[j+1] = f;
+		}
+		n &= ~1;
+	}
+
+	/* Intersects every span with [t0, t1]. */
+	public void clip (double t0, Node o0, int f0, double t1, Node o1, int f1) {
+		int w = 0;
+		for (int i=0; i+1<n; i+=2) {
+			double a = t[i];
+			double b = t[i+1];
+			Node oa = obj[i];
+			Node ob = obj[i+1];
+			int fa = facet[i];
+			int fb = facet[i+1];
+			if (a < t0) {
+				a = t0;
+				oa = o0;
+				fa = f0;
+			}
+			if (b > t1) {
+				b = t1;
+				ob = o1;
+				fb = f1;
+			}
+			if (a < b) {
+				t[w] = a;	obj[w] = oa;	facet[w] = fa;
+				t[w+1] = b;	obj[w+1] = ob;	facet[w+1] = fb;
+				w += 2;
+			}
+		}
+		n = w;
+	}
+
+	/* Replaces this list with (this op other), where op is one of the CSG types. Both lists are
+	 * walked together in t order and a boundary is written wherever the result changes from
+	 * outside to inside or back. */
+	public void combine (SpanList other, int op) {
+		ensureCap (n + other.n);
+		int i = 0;
+		int j = 0;
+		int w = 0;
+		boolean ina = false;
+		boolean inb = false;
+		boolean in = false;
+		while (i < n || j < other.n) {
+			double ta = (i < n) ? t[i] : Double.POSITIVE_INFINITY;
+			double tb = (j < other.n) ? other.t[j] : Double.POSITIVE_INFINITY;
+			boolean takea = (i < n) && ta <= tb;
+			boolean takeb = (j < other.n) && tb <= ta;
+			boolean na = takea ? !ina : ina;
+			boolean nb = takeb ? !inb : inb;
+			boolean res = inside (na, nb, op);
+			if (res != in) {
+				// blame whichever surface changed the result; prefer ours when both moved
+				boolean usea = takea && inside (na, inb, op) != in;
+				st[w] = usea ? ta : tb;
+				so[w] = usea ? obj[i] : other.obj[j];
+				sf[w] = usea ? facet[i] : other.facet[j];
+				w++;
+				in = res;
+			}
+			if (takea) i++;
+			if (takeb) j++;
+			ina = na;
+			inb = nb;
+		}
+		double[] tt = t;	t = st;		st = tt;
+		Node[] to = obj;	obj = so;	so = to;
+		int[] tf = facet;	facet = sf;	sf = tf;
+		n = w;
+	}
+
+	private static boolean inside (boolean a, boolean b, int op) {
+		switch (op) {
+			case CSG.UNION:			return a || b;
+			case CSG.INTERSECTION:	return a && b;
+			default:				return a && !b;
+		}
+	}
+
+	/* Index of the first finite boundary, or -1. */
+	public int first () {
+		for (int i=0; i<n; i++) {
+			if (!Double.isInfinite (t[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
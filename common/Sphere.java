@@ -1,6 +1,6 @@
 package common ;
 import java.util.ArrayList;
-public class  Sphere extends Node {
+public class  Sphere extends Node implements PlaneSection {
 
 	/* This just defines spheres centered at the origin. All other spheres are made by transformations */
 
@@ -18,12 +18,12 @@ public class  Sphere extends Node {
 		return new Sphere (rad);
 	}
 
-	public double csg (Float3 p) {
-		return p.mag() - rad;
+	public double csg (double x, double y, double z) {
+		return Math.sqrt (x*x + y*y + z*z) - rad;
 	}
 
-	public double dist (Float3 p) {
-		return p.mag() - rad;
+	public void gradient (Float3 p, Float3 out) {
+		out.set (p);
 	}
 
 	public int findIptsMax () {
@@ -32,8 +32,8 @@ public class  Sphere extends Node {
 
 	public void allIntersections (IList il, Ray r) {
 		Float3 omc = r.start;
-		Float3 dir = r.dir.normalize();
-		double b = dir.dot (omc);
+		double dmag = r.dir.mag();
+		double b = r.dir.dot (omc) / dmag;
 		double c = omc.dot(omc) - rad*rad;
 		if (b*b - c < 0) {
 			return;
@@ -42,13 +42,55 @@ public class  Sphere extends Node {
 		double t0 = -b + d;
 		double t1 = -b - d;
 		if (t1 > 0) {
-			il.add (new Intersection(t1/r.dir.mag(), this, 0));
+			il.add (t1/dmag, this, 0);
 		}
 		if (t0 > 0) {
-			il.add (new Intersection (t0/r.dir.mag(), this, 0));
+			il.add (t0/dmag, this, 0);
 		}
 	}
 
+	public Interval csgInterval (BBox b) {
+		return new Interval (b.minDist() - rad, b.maxDist() - rad);
+	}
+
+	public BBox findBounds () {
+		return new BBox (-rad, -rad, -rad, rad, rad, rad).pad (BBox.EPS);
+	}
+
+	public void spans (SpanList out, Ray r) {
+		double dmag = r.dir.mag();
+		double b = r.dir.dot (r.start) / dmag;
+		double c = r.start.dot (r.start) - rad*rad;
+		if (b*b - c < 0) {
+			return;
+		}
+		double d = Math.sqrt (b*b - c);
+		out.add ((-b-d) / dmag, this, 0, (-b+d) / dmag, this, 0);
+	}
+
+	/* The plane is n.u = d in our coordinates, n being the row of m that gives z. It cuts a
+	 * circle out of the sphere, around the point of it nearest the centre, and m makes an
+	 * ellipse of that, whose semi-diameters are those of two perpendicular radii of the circle. */
+	public boolean section (Transform m, double c, double tol, ArrayList<Curve> out) {
+		Float3 n = new Float3 (m.get (2, 0), m.get (2, 1), m.get (2, 2));
+		double nn = n.dot (n);
+		double d = c - m.get (2, 3);
+		double rsq = rad*rad - d*d / nn;
+		if (rsq <= 0) {
+			return true;
+		}
+		double r = Math.sqrt (rsq);
+		Float3 u0 = n.mul (d / nn);
+		Float3 away = (Math.abs (n.x) < Math.abs (n.y)) ? new Float3 (1, 0, 0) : new Float3 (0, 1, 0);
+		Float3 e1 = n.cross (away).normalize();
+		Float3 e2 = n.normalize().cross (e1);
+		Float3 a = m.transformVec (e1.mul (r));
+		Float3 b = m.transformVec (e2.mul (r));
+		Float3 o = m.transformPoint (u0);
+		out.add (Curve.ellipse (o.x, o.y, a.x, a.y, b.x, b.y).orient());
+		return true;
+	}
+
 	public String getString () {
 		return "Sphere, r = " + rad;
 	}
@@ -0,0 +1,309 @@
+package common;
+import java.util.ArrayList;
+public class Tape implements Field {
+
+	/* A Node tree's csg function lowered to a flat list of instructions, so evaluating it is one
+	 * loop over an int array instead of a walk through a dozen different node classes. Values
+	 * go on a stack; the point being evaluated at lives on a second stack that transforms push
+	 * and pop. The result is exactly what csg on the root would return, box culling included.
+	 * Nodes the compiler doesn't know are called through NODE, so any tree compiles. */
+
+	static final int SPHERE = 0;	// c: push |p| - r
+	static final int CIRCLE = 1;	// c: push |p.xy| - r
+	static final int RECT = 2;		// c: push rectangle csg, xs and ys at c
+	static final int POLY = 3;		// c n: push max over n edges (px, py, nx, ny at c) of the edge's half-plane
+	static final int EXTRUDE = 4;	// c: replace top with max (z distance to [0, h], top)
+	static final int XFORM = 5;		// c: push the point through the 3x4 matrix at c
+	static final int REVOLVE = 6;	// push the point (|p.xy|, p.z, 0)
+	static final int POP = 7;		// pop the point
+	static final int BOX = 8;		// c skip: if the point is outside the box at c, push max (distance, EPS) and jump to skip
+	static final int MIN = 9;		// pop b, a: push min (a, b)
+	static final int MAX = 10;		// pop b, a: push max (a, b)
+	static final int SUBTRACT = 11;	// pop b, a: push max (a, -b)
+	static final int NODE = 12;		// k: push nodes[k].csg (p)
+
+	public int[] ops;
+	public double[] consts;
+	public Node[] nodes;
+
+	private int vdepth, pdepth;	// stack sizes needed
+
+	private double[] vals;	// per copy
+	private double[] px, py, pz;
+
+	/* Builder state */
+	private ArrayList<Node> nodelist;
+	private int nops, nconsts;
+	private int vcur, pcur;
+
+	private Tape () {
+	}
+
+	public static Tape compile (Node root) {
+		Tape t = new Tape();
+		t.ops = new int[64];
+		t.consts = new double[64];
+		t.nodelist = new ArrayList<Node>();
+		t.pcur = t.pdepth = 1;
+		t.emitNode (root);
+		t.ops = java.util.Arrays.copyOf (t.ops, t.nops);
+		t.consts = java.util.Arrays.copyOf (t.consts, t.nconsts);
+		t.nodes = t.nodelist.toArray (new Node[0]);
+		t.nodelist = null;
+		t.allocStacks();
+		System.out.println ("Compiled tape: " + t.ops.length + " ops, " + t.consts.length + " constants, " + t.nodes.length + " fallback nodes");
+		return t;
+	}
+
+	public Field local () {
+		Tape t = new Tape();
+		t.ops = ops;
+		t.consts = consts;
+		t.nodes = nodes;
+		t.vdepth = vdepth;
+		t.pdepth = pdepth;
+		t.allocStacks();
+		return t;
+	}
+
+	private void allocStacks () {
+		vals = new double[vdepth];
+		px = new double[pdepth];
+		py = new double[pdepth];
+		pz = new double[pdepth];
+	}
+
+	/* ---- compiler ---- */
+
+	private void op (int o) {
+		if (nops == ops.length) ops = java.util.Arrays.copyOf (ops, 2*nops);
+		ops[nops++] = o;
+	}
+
+	private int constant (double d) {
+		if (nconsts == consts.length) consts = java.util.Arrays.copyOf (consts, 2*nconsts);
+		consts[nconsts] = d;
+		return nconsts++;
+	}
+
+	private void pushVal () {
+		vcur++;
+		vdepth = Math.max (vdepth, vcur);
+	}
+
+	private void pushPoint () {
+		pcur++;
+		pdepth = Math.max (pdepth, pcur);
+	}
+
+	private void emitNode (Node n) {
+		if (n instanceof Sphere) {
+			op (SPHERE);
+			op (constant (((Sphere) n).rad));
+			pushVal();
+		} else if (n instanceof Circle) {
+			op (CIRCLE);
+			op (constant (((Circle) n).rad));
+			pushVal();
+		} else if (n instanceof Rectangle) {
+			Rectangle r = (Rectangle) n;
+			op (RECT);
+			op (constant (r.xs));
+			constant (r.ys);
+			pushVal();
+		} else if (n instanceof SimplePolygon) {
+			SimplePolygon p = (SimplePolygon) n;
+			op (POLY);
+			op (nconsts);
+			op (p.points.length);
+			for (int i=0; i<p.points.length; i++) {
+				constant (p.points[i].x);
+				constant (p.points[i].y);
+				constant (p.normals[i].x);
+				constant (p.normals[i].y);
+			}
+			pushVal();
+		} else if (n instanceof Extrude) {
+			emitNode (n.left);
+			op (EXTRUDE);
+			op (constant (((Extrude) n).h));
+		} else if (n instanceof Revolve) {
+			op (REVOLVE);
+			pushPoint();
+			emitNode (n.left);
+			op (POP);
+			pcur--;
+		} else if (n instanceof TransformNode) {
+			Transform inv = ((TransformNode) n).inverse;
+			op (XFORM);
+			op (nconsts);
+			for (int i=0; i<3; i++) {
+				for (int j=0; j<4; j++) {
+					constant (inv.get (i, j));
+				}
+			}
+			pushPoint();
+			emitNode (n.left);
+			op (POP);
+			pcur--;
+		} else if (n instanceof CSG) {
+			CSG c = (CSG) n;
+			for (int i=0; i<c.children.length; i++) {
+				emitChild (c.children[i]);
+				if (i > 0) {
+					op (c.type == CSG.UNION ? MIN : (c.type == CSG.INTERSECTION ? MAX : SUBTRACT));
+					vcur--;
+				}
+			}
+		} else {
+			op (NODE);
+			op (nodelist.size());
+			nodelist.add (n);
+			pushVal();
+		}
+	}
+
+	private void emitChild (Node c) {	// CSG's culling: see CSG.childCsg
+		if (c.bounds == null) {
+			emitNode (c);
+			return;
+		}
+		BBox b = c.bounds;
+		op (BOX);
+		op (constant (b.x0));
+		constant (b.y0);
+		constant (b.z0);
+		constant (b.x1);
+		constant (b.y1);
+		constant (b.z1);
+		int fixup = nops;
+		op (0);
+		int v = vcur;
+		emitNode (c);
+		vcur = v + 1;
+		ops[fixup] = nops;
+	}
+
+	/* ---- interpreter ---- */
+
+	public double eval (double x, double y, double z) {
+		final int[] ops = this.ops;
+		final double[] k = this.consts;
+		final double[] vals = this.vals;
+		final double[] px = this.px;
+		final double[] py = this.py;
+		final double[] pz = this.pz;
+		int sp = -1;	// top of vals
+		int pp = 0;		// top of the point stack
+		px[0] = x;
+		py[0] = y;
+		pz[0] = z;
+		int pc = 0;
+		int end = ops.length;
+		while (pc < end) {
+			switch (ops[pc]) {
+				case SPHERE: {
+					double a = px[pp], b = py[pp], c = pz[pp];
+					vals[++sp] = Math.sqrt (a*a + b*b + c*c) - k[ops[pc+1]];
+					pc += 2;
+					break;
+				}
+				case CIRCLE: {
+					double a = px[pp], b = py[pp];
+					vals[++sp] = Math.sqrt (a*a + b*b) - k[ops[pc+1]];
+					pc += 2;
+					break;
+				}
+				case RECT: {
+					int c = ops[pc+1];
+					double xs = k[c], ys = k[c+1];
+					double dx = Math.abs(px[pp] - xs/2) - xs/2;
+					double dy = Math.abs(py[pp] - ys/2) - ys/2;
+					vals[++sp] = Math.max (dx, dy);
+					pc += 2;
+					break;
+				}
+				case POLY: {
+					int c = ops[pc+1];
+					int cend = c + 4*ops[pc+2];
+					double a = px[pp], b = py[pp];
+					double maxd = -1e20;
+					for (; c<cend; c+=4) {
+						maxd = Math.max ((a - k[c])*k[c+2] + (b - k[c+1])*k[c+3], maxd);
+					}
+					vals[++sp] = maxd;
+					pc += 3;
+					break;
+				}
+				case EXTRUDE: {
+					double h = k[ops[pc+1]];
+					double c = pz[pp];
+					double zd = (c < h/2) ? -c : c - h;
+					vals[sp] = Math.max (zd, vals[sp]);
+					pc += 2;
+					break;
+				}
+				case XFORM: {
+					int c = ops[pc+1];
+					double a = px[pp], b = py[pp], d = pz[pp];
+					pp++;
+					px[pp] = k[c]*a + k[c+1]*b + k[c+2]*d + k[c+3];
+					py[pp] = k[c+4]*a + k[c+5]*b + k[c+6]*d + k[c+7];
+					pz[pp] = k[c+8]*a + k[c+9]*b + k[c+10]*d + k[c+11];
+					pc += 2;
+					break;
+				}
+				case REVOLVE: {
+					double a = px[pp], b = py[pp], d = pz[pp];
+					pp++;
+					px[pp] = Math.sqrt (a*a + b*b);
+					py[pp] = d;
+					pz[pp] = 0;
+					pc += 1;
+					break;
+				}
+				case POP:
+					pp--;
+					pc += 1;
+					break;
+				case BOX: {
+					int c = ops[pc+1];
+					double a = px[pp], b = py[pp], d = pz[pp];
+					if (a >= k[c] && a <= k[c+3] && b >= k[c+1] && b <= k[c+4] && d >= k[c+2] && d <= k[c+5]) {
+						pc += 3;
+					} else {
+						double dx = Math.max (0, Math.max (k[c] - a, a - k[c+3]));
+						double dy = Math.max (0, Math.max (k[c+1] - b, b - k[c+4]));
+						double dz = Math.max (0, Math.max (k[c+2] - d, d - k[c+5]));
+						vals[++sp] = Math.max (Math.sqrt (dx*dx + dy*dy + dz*dz), BBox.EPS);
+						pc = ops[pc+2];
+					}
+					break;
+				}
+				case MIN:
+					sp--;
+					vals[sp] = Math.min (vals[sp], vals[sp+1]);
+					pc += 1;
+					break;
+				case MAX:
+					sp--;
+					vals[sp] = Math.max (vals[sp], vals[sp+1]);
+					pc += 1;
+					break;
+				case SUBTRACT:
+					sp--;
+					vals[sp] = Math.max (vals[sp], -vals[sp+1]);
+					pc += 1;
+					break;
+				case NODE:
+					vals[++sp] = nodes[ops[pc+1]].csg (px[pp], py[pp], pz[pp]);
+					pc += 2;
+					break;
+				default:
+					throw new IllegalStateException ("Bad tape op " + ops[pc] + " at " + pc);
+			}
+		}
+		return vals[0];
+	}
+
+}
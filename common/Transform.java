@@ -12,12 +12,94 @@ public class Transform {
 						   mat[2][0]*vec.x + mat[2][1]*vec.y + mat[2][2]*vec.z);
 	}
 
+	/* Multiplies by the transpose of the linear part. Applied to an inverse transform, this
+	 * carries surface normals through the original transform. */
+	public Float3 transformNormal (Float3 n) {
+		return new Float3 (mat[0][0]*n.x + mat[1][0]*n.y + mat[2][0]*n.z,
+						   mat[0][1]*n.x + mat[1][1]*n.y + mat[2][1]*n.z,
+						   mat[0][2]*n.x + mat[1][2]*n.y + mat[2][2]*n.z);
+	}
+
 	public Ray transformRay (Ray r) {
 		Ray res = new Ray (transformPoint (r.start), transformVec (r.dir));
 //		System.out.println ("Transforming " + r + " to " + res);
 		return res;
 	}
 
+	/* Allocation-free versions of the above, for the per-ray code. The outputs may be the same
+	 * objects as the inputs. */
+	public void transformRay (Ray r, Ray out) {
+		out.frame = null;
+		transformPointTo (r.start, out.start);
+		double x = r.dir.x;
+		double y = r.dir.y;
+		double z = r.dir.z;
+		out.dir.set (mat[0][0]*x + mat[0][1]*y + mat[0][2]*z,
+					 mat[1][0]*x + mat[1][1]*y + mat[1][2]*z,
+					 mat[2][0]*x + mat[2][1]*y + mat[2][2]*z);
+	}
+
+	public Float3 transformPointTo (Float3 pt, Float3 out) {
+		double x = pt.x;
+		double y = pt.y;
+		double z = pt.z;
+		return out.set (pointX (x, y, z), pointY (x, y, z), pointZ (x, y, z));
+	}
+
+	public Float3 transformNormalTo (Float3 n, Float3 out) {
+		double x = n.x;
+		double y = n.y;
+		double z = n.z;
+		return out.set (mat[0][0]*x + mat[1][0]*y + mat[2][0]*z,
+						mat[0][1]*x + mat[1][1]*y + mat[2][1]*z,
+						mat[0][2]*x + mat[1][2]*y + mat[2][2]*z);
+	}
+
+	public double get (int row, int col) {
+		return mat[row][col];
+	}
+
+	public double pointX (double x, double y, double z) {
+		return mat[0][0]*x + mat[0][1]*y + mat[0][2]*z + mat[0][3];
+	}
+
+	public double pointY (double x, double y, double z) {
+		return mat[1][0]*x + mat[1][1]*y + mat[1][2]*z + mat[1][3];
+	}
+
+	public double pointZ (double x, double y, double z) {
+		return mat[2][0]*x + mat[2][1]*y + mat[2][2]*z + mat[2][3];
+	}
+
+	/* Spectral norm of the linear part, i.e. the most it can stretch a vector. This is the square
+	 * root of the largest eigenvalue of M^T M, which is symmetric, so the closed form for 3x3
+	 * symmetric matrices applies. Rounded up a little so it is safe to divide distances by. */
+	public double linearNorm () {
+		double[][] a = new double[3][3];
+		for (int i=0; i<3; i++) {
+			for (int j=0; j<3; j++) {
+				for (int k=0; k<3; k++) {
+					a[i][j] += mat[k][i] * mat[k][j];
+				}
+			}
+		}
+		double p1 = a[0][1]*a[0][1] + a[0][2]*a[0][2] + a[1][2]*a[1][2];
+		double lmax;
+		if (p1 < 1e-30) {
+			lmax = Math.max (a[0][0], Math.max (a[1][1], a[2][2]));
+		} else {
+			double q = (a[0][0] + a[1][1] + a[2][2]) / 3;
+			double p2 = (a[0][0]-q)*(a[0][0]-q) + (a[1][1]-q)*(a[1][1]-q) + (a[2][2]-q)*(a[2][2]-q) + 2*p1;
+			double p = Math.sqrt (p2 / 6);
+			double b00 = (a[0][0]-q)/p, b11 = (a[1][1]-q)/p, b22 = (a[2][2]-q)/p;
+			double b01 = a[0][1]/p, b02 = a[0][2]/p, b12 = a[1][2]/p;
+			double r = (b00*(b11*b22 - b12*b12) - b01*(b01*b22 - b12*b02) + b02*(b01*b12 - b11*b02)) / 2;
+			double phi = Math.acos (Math.max (-1, Math.min (1, r))) / 3;
+			lmax = q + 2*p*Math.cos (phi);
+		}
+		return Math.sqrt (Math.max (lmax, 0)) * (1 + 1e-9);
+	}
+
 	private double[][] mat;
 
 	public Transform (double[][] m) {
@@ -1,27 +1,85 @@
 package common;
 import java.util.ArrayList;
-public class TransformNode extends Node {
+public class TransformNode extends Node implements PlaneSection {
 
 	public Transform xform;
 	public Transform inverse;
+	private double stretch;	// largest factor by which inverse stretches a vector, for dist
+	private RayFrame frame;	// the last camera frame seen by toChild (Ray, Ray), under inverse
+	private TransformNode cache = this;	// whose frame to use; pruned copies share the original's
 
 	public TransformNode (Transform t) {
 		xform = t;
 		inverse = t.invert();
+		stretch = inverse.linearNorm();
 		Transform TEST = xform.append (inverse);
 		System.out.println ("INVERSION TEST: (original = " + xform + "; inverse = " + inverse + ") product = " + TEST);
 	}
 
+	private TransformNode (TransformNode other) {	// for prune; skips inverting again
+		xform = other.xform;
+		inverse = other.inverse;
+		stretch = other.stretch;
+		mat = other.mat;
+		cache = other.cache;
+	}
+
+	/* Folds inner, which should be this node's child, into this transform. */
+	public void compose (TransformNode inner) {
+		xform = xform.append (inner.xform);
+		inverse = inner.inverse.append (inverse);
+		stretch = inverse.linearNorm();
+		frame = null;
+	}
+
 	public Node copy () {
 		return new TransformNode (xform);
 	}
 
-	public double csg (Float3 pt) {
-		return left.csg (inverse.transformPoint (pt));
+	public double csg (double x, double y, double z) {
+		return left.csg (inverse.pointX (x, y, z), inverse.pointY (x, y, z), inverse.pointZ (x, y, z));
+	}
+
+	/* A ball of radius d around a point maps to something inside a ball of radius d*stretch in
+	 * the child's coordinates, so the child's bound has to be divided by stretch. This holds for
+	 * non-uniform scales too, where stretch is the largest of the inverse scale factors. */
+	public double dist (double x, double y, double z) {
+		return left.dist (inverse.pointX (x, y, z), inverse.pointY (x, y, z), inverse.pointZ (x, y, z)) / stretch;
+	}
+
+	public void findSurface (double x, double y, double z, IList il) {
+		left.findSurface (inverse.pointX (x, y, z), inverse.pointY (x, y, z), inverse.pointZ (x, y, z), il);
+	}
+
+	public void gradient (Float3 pt, Float3 out) {
+		inverse.transformPointTo (pt, out);
+		left.gradient (out, out);
+		fromChild (left, out);
+	}
+
+	public void toChild (Float3 pt) {
+		inverse.transformPointTo (pt, pt);
 	}
 
-	public double dist (Float3 pt) {
-		return left.dist (inverse.transformPoint (pt));
+	public void fromChild (Node c, Float3 g) {	// normals go through the inverse transpose
+		inverse.transformNormalTo (g, g);
+	}
+
+	/* Sets lr to r in the child's coordinates. For a ray of a camera frame, the frame is
+	 * transformed once and then reused for every ray of it, so no matrix is applied per ray.
+	 * Render threads may race to fill in the cache, which is harmless: frames are immutable,
+	 * and any of them made from r's frame will do. */
+	private void toChild (Ray r, Ray lr) {
+		if (r.frame == null) {
+			inverse.transformRay (r, lr);
+			return;
+		}
+		RayFrame f = cache.frame;
+		if (f == null || f.source != r.frame) {
+			f = r.frame.transform (inverse);
+			cache.frame = f;
+		}
+		f.ray (r.px, r.py, lr);
 	}
 
 	public int findIptsMax () {
@@ -29,7 +87,39 @@ public class TransformNode extends Node {
 	}
 
 	public void allIntersections (IList il, Ray r) {
-		left.allIntersections (il, inverse.transformRay (r));
+		Ray lr = r.scratch();
+		toChild (r, lr);
+		left.allIntersections (il, lr);
+	}
+
+	public Interval csgInterval (BBox b) {
+		return left.csgInterval (b.transform (inverse));
+	}
+
+	public Node prune (Bundle r) {
+		Node l = left.prune (r.transform (inverse));
+		if (l == null) return null;
+		if (l == left) return this;
+		TransformNode t = new TransformNode (this);
+		t.left = l;
+		t.bounds = t.findBounds();
+		return t;
+	}
+
+	public BBox findBounds () {
+		return left.bounds.transform (xform);
+	}
+
+	public void spans (SpanList out, Ray r) {
+		Ray lr = r.scratch();
+		toChild (r, lr);
+		left.spans (out, lr);
+	}
+
+	/* Any transform will do, rotations off the axes included: the child is just handed the
+	 * plane's map with ours put in front. */
+	public boolean section (Transform m, double c, double tol, ArrayList<Curve> out) {
+		return (left instanceof PlaneSection) && ((PlaneSection) left).section (m.append (xform), c, tol, out);
 	}
 
 	public String getString () {
@@ -145,7 +145,15 @@ public class Interpreter {
 			n.mat = new Material (Prefs.current.DEFAULT_OBJ_COLOR);
 		}
 		propogateMaterials (n);
+		n.buildBounds();
+		if (Prefs.current.OPTIMIZE_TREE) {
+			n = Optimizer.optimize (n);
+			n.parent = null;
+			buildParentPointers (n);
+			n.buildBounds();
+		}
 		System.out.println ("FINAL CSG TREE: \n" + n);
+		System.out.println ("Bounds: " + n.bounds);
 
 		return n;
 	}
@@ -401,9 +409,26 @@ public class Interpreter {
 			result = runUserModule (mdef, children);
 		}
 		rts.pop();
+		label (result, mc.name() + " " + mc.fm);
 		return result;
 	}
 
+	/* Gives the nodes of n that no call inside this one has claimed the origin of this call,
+	 * so that profiles can name the line that made each part of the tree. */
+	private void label (Node n, String origin) {
+		if (n == null || n.origin != null) {
+			return;
+		}
+		n.origin = origin;
+		label (n.left, origin);
+		label (n.right, origin);
+		if (n instanceof CSG) {
+			for (Node c : ((CSG) n).children) {
+				label (c, origin);
+			}
+		}
+	}
+
 	/* This will be in many ways similar to runMcall, except there is no child evaluation */
 	private Datum runFcall (Tree fc) throws RTException {
 		if (rts.size() > Prefs.current.STACK_HEIGHT_CAP) {
@@ -1005,14 +1030,14 @@ public class Interpreter {
 			return;
 		}
 		if (n instanceof TransformNode) {
-			if (n.left instanceof TransformNode) {
-				smushTransforms (n.left);
-				TransformNode tnl = (TransformNode) n.left;
-				TransformNode tn = (TransformNode) n;
-				tn.xform = tnl.xform.append (tn.xform);
-				tn.inverse = tnl.inverse.append (tn.inverse);
-				n.left = n.left.left;
+			TransformNode tn = (TransformNode) n;
+			while (tn.left instanceof TransformNode) {
+				TransformNode tnl = (TransformNode) tn.left;
+				tn.compose (tnl);
+				if (tnl.mat != null) tn.mat = tnl.mat;	// e.g. a color() around a single transform
+				tn.left = tnl.left;
 			}
+			smushTransforms (tn.left);
 		} else if (n instanceof CSG) {
 			CSG c = (CSG) n;
 			for (int i=0; i<c.children.length; i++) {
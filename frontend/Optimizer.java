@@ -0,0 +1,183 @@
+package frontend;
+import common.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class Optimizer {
+
+	/* Restructures a finished CSG tree so that it is cheaper to render, without changing the
+	 * solid it describes. makeExplicit and inject build unions as long flat lists, and module
+	 * calls wrap unions in unions, so:
+	 *   - nested CSG nodes of the same type are flattened into one (and a difference whose
+	 *     first child is a difference, or which subtracts a union, is flattened too);
+	 *   - wide unions are regrouped into a balanced hierarchy by splitting on the median
+	 *     centroid of their children's boxes, so that box culling can skip whole groups;
+	 *   - a difference that subtracts many children subtracts one such hierarchy instead;
+	 *   - intersection operands and subtracted children are ordered smallest box first, which
+	 *     are the ones most likely to reject a ray or a point.
+	 * min and max don't care about grouping, but box culling does: a point outside a new
+	 * group's box gets the distance to that box (see CSG.childCsg) where before it got the
+	 * least of its children's, so csg keeps its sign and where it is zero (the solid and its
+	 * surface), not its values away from the surface.
+	 * Needs materials propagated and bounds built before, and parent pointers and bounds
+	 * rebuilt after. */
+
+	public static final int LEAF = 4;	// most children per node in a regrouped union
+
+	public static Node optimize (Node n) {
+		int d0 = depth (n);
+		int c0 = countCSG (n);
+		n = flatten (n);
+		n = regroup (n);
+		System.out.println ("Optimizer: depth " + d0 + " -> " + depth (n) + ", CSG nodes " + c0 + " -> " + countCSG (n));
+		return n;
+	}
+
+	/* ---- flattening ---- */
+
+	private static Node flatten (Node n) {
+		if (!(n instanceof CSG)) {
+			if (n.left != null) n.left = flatten (n.left);
+			return n;
+		}
+		CSG c = (CSG) n;
+		ArrayList<Node> res = new ArrayList<Node>();
+		for (int i=0; i<c.children.length; i++) {
+			Node ch = flatten (c.children[i]);
+			boolean splice = false;
+			if (ch instanceof CSG) {
+				int t = ((CSG) ch).type;
+				if (c.type == CSG.DIFFERENCE) {	// (a - b) - c = a - b - c, and a - (b + c) = a - b - c
+					splice = (i == 0) ? t == CSG.DIFFERENCE : t == CSG.UNION;
+				} else {
+					splice = t == c.type;
+				}
+			}
+			if (splice) {
+				res.addAll (Arrays.asList (((CSG) ch).children));
+			} else {
+				res.add (ch);
+			}
+		}
+		if (res.size() == 1) {
+			return res.get (0);
+		}
+		c.children = res.toArray (new Node[0]);
+		return c;
+	}
+
+	/* ---- regrouping ---- */
+
+	private static Node regroup (Node n) {
+		if (!(n instanceof CSG)) {
+			if (n.left != null) n.left = regroup (n.left);
+			return n;
+		}
+		CSG c = (CSG) n;
+		for (int i=0; i<c.children.length; i++) {
+			c.children[i] = regroup (c.children[i]);
+		}
+		switch (c.type) {
+			case CSG.UNION:
+				if (c.children.length > LEAF) {
+					c.children = split (c.children, c.mat);
+				}
+				break;
+			case CSG.INTERSECTION:
+				Arrays.sort (c.children, BY_VOLUME);
+				break;
+			case CSG.DIFFERENCE:
+				Node[] sub = Arrays.copyOfRange (c.children, 1, c.children.length);
+				if (sub.length > LEAF) {
+					c.children = new Node[] {c.children[0], group (sub, c.mat)};
+				} else {
+					Arrays.sort (c.children, 1, c.children.length, BY_VOLUME);
+				}
+				break;
+		}
+		return c;
+	}
+
+	/* Union of nodes, as a balanced hierarchy. */
+	private static Node group (Node[] nodes, Material mat) {
+		if (nodes.length == 1) return nodes[0];
+		CSG u = new CSG (CSG.UNION);
+		u.mat = mat;
+		u.children = (nodes.length > LEAF) ? split (nodes, mat) : nodes;
+		return u;
+	}
+
+	/* Halves nodes at the median centroid along the axis where the centroids spread the most. */
+	private static Node[] split (Node[] nodes, Material mat) {
+		double[] lo = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] hi = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (Node n : nodes) {
+			double[] c = centroid (n);
+			for (int a=0; a<3; a++) {
+				lo[a] = Math.min (lo[a], c[a]);
+				hi[a] = Math.max (hi[a], c[a]);
+			}
+		}
+		int axis = 0;
+		for (int a=1; a<3; a++) {
+			if (hi[a] - lo[a] > hi[axis] - lo[axis]) axis = a;
+		}
+		final int ax = axis;
+		Node[] sorted = nodes.clone();
+		Arrays.sort (sorted, new Comparator<Node> () {
+			public int compare (Node a, Node b) {
+				return Double.compare (centroid (a)[ax], centroid (b)[ax]);
+			}
+		});
+		int mid = sorted.length / 2;
+		return new Node[] {group (Arrays.copyOfRange (sorted, 0, mid), mat), group (Arrays.copyOfRange (sorted, mid, sorted.length), mat)};
+	}
+
+	private static double[] centroid (Node n) {
+		BBox b = n.bounds;
+		return new double[] {(b.x0 + b.x1) / 2, (b.y0 + b.y1) / 2, (b.z0 + b.z1) / 2};
+	}
+
+	private static double volume (Node n) {
+		BBox b = n.bounds;
+		return (b.x1 - b.x0) * (b.y1 - b.y0) * (b.z1 - b.z0);
+	}
+
+	/* Smaller boxes first; between equal boxes, smaller subtrees first. */
+	private static final Comparator<Node> BY_VOLUME = new Comparator<Node> () {
+		public int compare (Node a, Node b) {
+			int c = Double.compare (volume (a), volume (b));
+			return (c != 0) ? c : Integer.compare (size (a), size (b));
+		}
+	};
+
+	/* ---- statistics ---- */
+
+	private static int size (Node n) {
+		int ct = 1;
+		if (n.left != null) ct += size (n.left);
+		if (n instanceof CSG) {
+			for (Node c : ((CSG) n).children) ct += size (c);
+		}
+		return ct;
+	}
+
+	private static int depth (Node n) {
+		int d = 0;
+		if (n.left != null) d = depth (n.left);
+		if (n instanceof CSG) {
+			for (Node c : ((CSG) n).children) d = Math.max (d, depth (c));
+		}
+		return d + 1;
+	}
+
+	private static int countCSG (Node n) {
+		int ct = (n instanceof CSG) ? 1 : 0;
+		if (n.left != null) ct += countCSG (n.left);
+		if (n instanceof CSG) {
+			for (Node c : ((CSG) n).children) ct += countCSG (c);
+		}
+		return ct;
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.io.*;
 import common.*;
 import render.*;
+import slice.*;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 
@@ -19,6 +20,17 @@ public class Test {
 		Interpreter i = new Interpreter (t);
 		Node n = i.run ();
 		System.out.println ("Execution complete; CSG tree is \n" + n);
+		if (args.length > 1 && args[1].equals ("-bench")) {
+			benchEngines (n);
+		} else if (args.length > 1 && args[1].equals ("-fieldbench")) {
+			benchFields (n);
+		} else if (args.length > 1 && args[1].equals ("-slicecheck")) {
+			double[] extra = new double[args.length - 2];
+			for (int k=2; k<args.length; k++) {
+				extra[k-2] = Double.parseDouble (args[k]);
+			}
+			checkSlices (n, extra);
+		}
 		/*
 		Scene s = new Scene (n);
 		BufferedImage img = new BufferedImage (200, 200, 1);
@@ -26,4 +38,124 @@ public class Test {
 		ImageIO.write (img, "png", new File (args[1]));
 		*/
 	}
+
+	/* Renders the model with each intersection engine and reports the best of a few frames. */
+	public static void benchEngines (Node n) {
+		int res = 400;
+		int[] data = new int[res * res];
+		String[] names = {"surface filter", "spans", "sphere trace"};
+		int[] engines = {Scene.SURFACE_FILTER, Scene.SPANS, Scene.SPHERE_TRACE};
+		long[] best = new long[engines.length];
+		for (int e=0; e<engines.length; e++) {
+			Scene s = new Scene (n);
+			s.engine = engines[e];
+			s.updateCameraSize (res, res);
+			s.rotateStuff (0.6, 0.4);
+			s.waitForClass();	// so that no compile runs during the frames
+			best[e] = Long.MAX_VALUE;
+			for (int i=0; i<5; i++) {
+				best[e] = Math.min (best[e], Raytrace.render (s, data, res, res));
+			}
+		}
+		for (int e=0; e<engines.length; e++) {
+			System.out.println ("BENCH " + names[e] + ": " + best[e] + " ms");
+		}
+	}
+
+	/* Times the tree walk, the Tape and the generated class on the same random points in the
+	 * model's box, and checks that they agree. */
+	public static void benchFields (Node n) {
+		int npts = 200000;
+		double[] pts = new double[3*npts];
+		java.util.Random rnd = new java.util.Random (1);
+		BBox b = n.bounds;
+		for (int i=0; i<npts; i++) {
+			pts[3*i] = b.x0 + (b.x1 - b.x0) * rnd.nextDouble();
+			pts[3*i+1] = b.y0 + (b.y1 - b.y0) * rnd.nextDouble();
+			pts[3*i+2] = b.z0 + (b.z1 - b.z0) * rnd.nextDouble();
+		}
+		String[] names = {"tree walk", "tape", "class"};
+		Field[] fields = {n, Tape.compile (n), FieldCompiler.compile (n)};
+		for (int f=0; f<fields.length; f++) {
+			if (fields[f] == null) {
+				System.out.println ("BENCH " + names[f] + ": unavailable");
+				continue;
+			}
+			long best = Long.MAX_VALUE;
+			double sum = 0;
+			int mismatches = 0;
+			for (int rep=0; rep<10; rep++) {
+				long time = System.nanoTime();
+				for (int i=0; i<npts; i++) {
+					double v = fields[f].eval (pts[3*i], pts[3*i+1], pts[3*i+2]);
+					sum += v;
+					if (rep == 0 && v != n.csg (pts[3*i], pts[3*i+1], pts[3*i+2])) mismatches++;
+				}
+				if (rep > 0) best = Math.min (best, System.nanoTime() - time);
+			}
+			System.out.println ("BENCH " + names[f] + ": " + (best / npts) + " ns/eval, " + mismatches + " mismatches (checksum " + sum + ")");
+		}
+	}
+
+	/* Slices the model exactly, by SectionWorker, and on the grid, by SliceWorker, and checks
+	 * that their areas agree: at the middle of every uniform and every adaptive layer, at
+	 * small steps through the bottom few layers (where caps cut along the same line have
+	 * given an exact section of nothing), and at any heights given. An exact slice that falls
+	 * back is fine; one that disagrees with the grid by more than the grid can be out is not.
+	 * The bottom layer of each plan, as Slicer does it, must have something in it, as an
+	 * empty first layer leaves the print nothing to stand on. */
+	public static void checkSlices (Node n, double[] extra) {
+		Slicer sl = new Slicer (n);
+		ArrayList<Double> zs = new ArrayList<Double>();
+		sl.adaptive = false;
+		for (int k=0; k<sl.layers(); k++) {
+			zs.add (sl.layer(k).z);
+		}
+		sl.adaptive = true;
+		for (int k=0; k<sl.layers(); k++) {
+			zs.add (sl.layer(k).z);
+		}
+		double z0 = n.bounds.z0 + BBox.EPS;
+		for (double z=z0; z<z0 + 3*sl.layer_h; z+=sl.layer_h/50) {
+			zs.add (z);
+		}
+		for (double z : extra) {
+			zs.add (z);
+		}
+		SectionWorker e = new SectionWorker (n, sl.tol);
+		SliceWorker w = new SliceWorker (n, sl.cell, sl.block, sl.tol);
+		int exact = 0, bad = 0;
+		for (int a=0; a<2; a++) {
+			sl.adaptive = (a == 1);
+			Layer l = sl.layer (0);
+			sl.slice (l, e, w);
+			double area = 0;
+			for (Contour c : l.contours) area += c.area();
+			System.out.println ("SLICECHECK " + (sl.adaptive ? "adaptive" : "uniform") + " layer 0 at z " + l.z + ": " + l.contours.size() + " contours, area " + area + (l.exact ? ", exact" : ", on the grid"));
+			if (l.contours.isEmpty()) {
+				bad++;
+			}
+		}
+		for (double z : zs) {
+			Layer le = new Layer (0, z, sl.layer_h), lg = new Layer (0, z, sl.layer_h);
+			if (!e.slice (le)) {
+				continue;
+			}
+			exact++;
+			w.slice (lg);
+			double ae = 0, ag = 0, edge = 0;
+			for (Contour c : le.contours) ae += c.area();
+			for (Contour c : lg.contours) ag += c.area();
+			for (Contour c : lg.contours) {
+				for (int i=0; i<c.n; i++) {
+					edge += Math.hypot (c.x[(i+1) % c.n] - c.x[i], c.y[(i+1) % c.n] - c.y[i]);
+				}
+			}
+			if (Math.abs (ae - ag) > sl.cell * edge / 4 + sl.cell * sl.cell) {	// the grid's outline can be a fraction of a cell out
+				bad++;
+				System.out.println ("SLICECHECK z " + z + ": exact " + ae + " in " + le.contours.size() + " contours, grid " + ag + " in " + lg.contours.size());
+			}
+		}
+		System.out.println ("SLICECHECK " + zs.size() + " heights, " + exact + " exact, " + (zs.size() - exact) + " fell back, " + bad + " disagree with the grid");
+	}
 }
@@ -1,5 +1,6 @@
 package gui;
 
+import common.*;
 import javax.swing.*;
 import javax.swing.event.*;
 import java.awt.event.*;
@@ -32,6 +33,8 @@ public class BetterSCAD extends JFrame implements ActionListener, ComponentListe
 	public JMenu model;
 	public JMenuItem model_compile;
 	public JMenuItem model_slice;
+	public JMenuItem model_gcode;
+	public JCheckBoxMenuItem model_profile;
 
 	public static int FR_XS = 1080;
 	public static int FR_YS = 660;
@@ -112,15 +115,23 @@ public class BetterSCAD extends JFrame implements ActionListener, ComponentListe
 
 		model_compile = new JMenuItem ("Compile");
 		model_slice = new JMenuItem ("Slice");
+		model_gcode = new JMenuItem ("Write G-code");
+		model_profile = new JCheckBoxMenuItem ("Profile", Prefs.current.PROFILE);
 		
 		model_compile.addActionListener(this);
 		model_slice.addActionListener(this);
+		model_gcode.addActionListener(this);
+		model_profile.addActionListener(this);
 
 		model_compile.setActionCommand ("compile");
 		model_slice.setActionCommand ("slice");
+		model_gcode.setActionCommand ("gcode");
+		model_profile.setActionCommand ("profile");
 
 		model.add (model_compile);
 		model.add (model_slice);
+		model.add (model_gcode);
+		model.add (model_profile);
 
 		mbar.add (file);
 		mbar.add (model);
@@ -211,6 +222,14 @@ public class BetterSCAD extends JFrame implements ActionListener, ComponentListe
 		} else if (c.equals ("compile")) {
 			current.compile();
 		} else if (c.equals ("slice")) {
+			current.slice();
+		} else if (c.equals ("gcode")) {
+			current.gcode();
+		} else if (c.equals ("profile")) {
+			Prefs.current.PROFILE = model_profile.isSelected();
+			if (current != null && current.isCompiled) {
+				current.compile();	// the tree is only instrumented when the scene is made
+			}
 		} else if (c.equals ("quit")) {
 			System.exit(0);
 		}
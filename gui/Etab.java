@@ -2,6 +2,7 @@ package gui;
 import frontend.*;
 import common.*;
 import render.*;
+import slice.*;
 
 import javax.swing.*;
 import java.awt.event.*;
@@ -22,9 +23,7 @@ public class Etab extends JTextArea {
 	public boolean saved = true;
 
 	public void render () {
-		if (isCompiled) {
-			int ds = Prefs.current.DOWNSAMPLING;
-			sc.updateCameraSize (BetterSCAD.VIEW_XS / ds, BetterSCAD.VIEW_YS / ds);
+		if (isCompiled) {	// the view's scheduler sizes the camera, on its own thread
 			BetterSCAD.view.render();
 		} else {
 		}
@@ -85,6 +84,81 @@ public class Etab extends JTextArea {
 		}
 	}
 
+	/* Slices the compiled model on a thread of its own, and reports on the console. */
+	public void slice () {
+		if (!isCompiled) {
+			cons.append ("Compile the model before slicing it");
+			return;
+		}
+		final Node root = sc.root;
+		Thread t = new Thread (new Runnable () {
+			public void run () {
+				long time = System.currentTimeMillis();
+				Slicer s = new Slicer (root);
+				Layer[] layers = s.slice();
+				int contours = 0, points = 0, exact = 0;
+				for (Layer l : layers) {
+					contours += l.contours.size();
+					points += l.points();
+					if (l.exact) exact++;
+				}
+				String heights = (s.adapt != null) ? "of " + s.adapt.hmin + " to " + s.adapt.hmax : "of " + s.layer_h;
+				report ("Sliced into " + layers.length + " layers " + heights + " mm (" + exact + " exactly), " + contours + " contours, " + points + " points, in " + (System.currentTimeMillis() - time) + " ms on " + s.nthreads + " threads");
+				if (s.adapt != null) {
+					report ("Adaptive layers: " + s.adapt);
+				}
+			}
+		}, "Slice");
+		t.setDaemon (true);
+		t.start();
+	}
+
+	/* Slices the compiled model into G-code, written beside its file as it goes, on a thread
+	 * of its own. */
+	public void gcode () {
+		if (!isCompiled) {
+			cons.append ("Compile the model before slicing it");
+			return;
+		}
+		if (file == null) {
+			cons.append ("Save the model before writing its G-code");
+			return;
+		}
+		final Node root = sc.root;
+		String name = file.getName().replaceFirst ("\\.scad$", "") + ".gcode";
+		final File out = new File (file.getAbsoluteFile().getParentFile(), name);
+		Thread t = new Thread (new Runnable () {
+			public void run () {
+				long time = System.currentTimeMillis();
+				GcodePipeline g = new GcodePipeline (root);
+				try {
+					g.write (out);
+				} catch (IOException e) {
+					report ("Couldn't write " + out + ": " + e.getMessage());
+					return;
+				} catch (RuntimeException e) {	// a worker's, which would otherwise die with the thread
+					Throwable c = (e.getCause() != null) ? e.getCause() : e;
+					report ("Couldn't slice into " + out + ": " + c);
+					return;
+				}
+				report ("Wrote " + g.layers + " layers (" + g.exact + " sliced exactly), " + g.bytes + " bytes, to " + out + " in " + (System.currentTimeMillis() - time) + " ms; printing time about " + Math.round (g.seconds / 60) + " minutes");
+				if (g.slicer.adapt != null) {
+					report ("Adaptive layers: " + g.slicer.adapt);
+				}
+			}
+		}, "Gcode");
+		t.setDaemon (true);
+		t.start();
+	}
+
+	private void report (final String msg) {
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				cons.append (msg);
+			}
+		});
+	}
+
 	public void save () throws IOException {
 		FileWriter fw = new FileWriter (file);
 		BufferedWriter bw = new BufferedWriter (fw);
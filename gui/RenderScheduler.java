@@ -0,0 +1,192 @@
+package gui;
+import common.*;
+import render.*;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RenderScheduler implements Runnable {
+
+	/* Renders frames for a Viewer on a thread of its own, so the event thread never waits for
+	 * the raytracer. Requests carry camera changes (rotation and zoom); requests that arrive
+	 * while a frame is being traced cancel it and pile up into one, which is rendered next.
+	 * So however fast the mouse moves, the picture is at most one frame behind it.
+	 * Frames are progressive: the first pass traces only every PROGRESSIVE_STEP-th pixel and
+	 * is shown at once, and each later pass halves the step, reusing what was traced before.
+	 * A new request stops the refining, so while the camera moves only coarse passes run.
+	 * Requests made while the camera moves can instead ask for the last frame to be
+	 * reprojected to the new view (see Raytrace.reproject), which is shown as it is and
+	 * then traced again properly if no other request comes along first. Reprojected frames
+	 * are not cancelled: they are quick, and a drag that never let one finish would show
+	 * nothing at all.
+	 * Only this thread touches the scene's camera and lights once it has been handed a scene.
+	 * Each pass is traced straight into the pixels of an image, which is then handed to the
+	 * viewer as it is; the viewer gives back the images it stops showing, to be reused.
+	 * With Prefs PROFILE, each frame that gets to full resolution is followed by a list of
+	 * the source lines that cost the most, for the console. */
+
+	public static final int POOL_MAX = 4;	// spare images kept
+
+	private Viewer view;
+	private AtomicBoolean cancel = new AtomicBoolean (false);
+
+	/* The latest request, guarded by this */
+	private boolean pending = false;
+	private Scene scene;
+	private int xs, ys;	// the camera's size
+	private int rxs, rys;	// the resolution to render it at
+	private double phi, theta;	// summed over the requests since the last frame started
+	private double scale = 1;
+	private boolean reproject;	// all the requests since the last frame started asked for it
+
+	private ArrayList<BufferedImage> pool = new ArrayList<BufferedImage>();	// guarded by itself
+
+	public RenderScheduler (Viewer view) {
+		this.view = view;
+		Thread t = new Thread (this, "Render scheduler");
+		t.setDaemon (true);
+		t.start();
+	}
+
+	/* Asks for a frame of sc with the camera sized to xs x ys, rendered at rxs x rys (the
+	 * same view, just coarser or finer), after rotating by phi and theta and zooming by
+	 * scale, and reprojected from the last one if reproject is set. Returns at once. */
+	public synchronized void request (Scene sc, int xs, int ys, int rxs, int rys, double phi, double theta, double scale, boolean reproject) {
+		if (sc != scene) {	// changes to an old scene don't carry over
+			this.phi = 0;
+			this.theta = 0;
+			this.scale = 1;
+		}
+		this.scene = sc;
+		this.xs = xs;
+		this.ys = ys;
+		this.rxs = rxs;
+		this.rys = rys;
+		this.phi += phi;
+		this.theta += theta;
+		this.scale *= scale;
+		this.reproject = pending ? (this.reproject && reproject) : reproject;
+		pending = true;
+		cancel.set (true);
+		notifyAll();
+	}
+
+	public void run () {
+		while (true) {
+			Scene sc;
+			int fxs, fys, frxs, frys;
+			double fphi, ftheta, fscale;
+			boolean freproject;
+			synchronized (this) {
+				while (!pending) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				sc = scene;
+				fxs = xs;
+				fys = ys;
+				frxs = rxs;
+				frys = rys;
+				fphi = phi;
+				ftheta = theta;
+				fscale = scale;
+				freproject = reproject;
+				phi = 0;
+				theta = 0;
+				scale = 1;
+				pending = false;
+				cancel.set (false);
+			}
+
+			sc.updateCameraSize (fxs, fys);
+			sc.rotateStuff (fphi, ftheta);
+			sc.cam.scale (fscale);
+			Camera cam = sc.cam;
+			if (frxs != fxs || frys != fys) {
+				sc.cam = cam.sampled (frxs, frys);
+			}
+			long time = 0;
+			int coarse = Integer.highestOneBit (Math.max (1, Prefs.current.PROGRESSIVE_STEP));
+			boolean shown = false;	// a reprojected frame is up
+			if (freproject && sc.gbuf.frame != null) {
+				BufferedImage img = take (frxs, frys);
+				long t = Raytrace.reproject (sc, pixels (img), frxs, frys, null);
+				publish (img, t, true, t);
+				shown = true;
+				coarse = isPending() ? 0 : 1;	// the full resolution pass only, if any
+			}
+			for (int step = coarse; step >= 1; step /= 2) {
+				BufferedImage img = take (frxs, frys);
+				long t = Raytrace.render (sc, pixels (img), frxs, frys, step, step < coarse, cancel);
+				if (t < 0) {	// a newer request is waiting
+					recycle (img);
+					break;
+				}
+				time += t;
+				publish (img, time, step == coarse && !shown, t * step * step);	// as if every pixel were traced
+				if (step == 1 && Prefs.current.PROFILE) {
+					report (ProfileNode.report (sc.root, Prefs.current.PROFILE_TOP));
+				}
+				if (isPending()) {
+					break;
+				}
+			}
+			sc.cam = cam;
+		}
+	}
+
+	private synchronized boolean isPending () {
+		return pending;
+	}
+
+	private void publish (final BufferedImage img, final long time, final boolean first, final long full) {
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				view.publish (img, time, first, full);
+			}
+		});
+	}
+
+	private void report (final String msg) {
+		SwingUtilities.invokeLater (new Runnable () {
+			public void run () {
+				view.report (msg);
+			}
+		});
+	}
+
+	/* An image to trace a frame into, from the pool if there is one of the right size. */
+	private BufferedImage take (int w, int h) {
+		synchronized (pool) {
+			for (int i=pool.size()-1; i>=0; i--) {
+				BufferedImage img = pool.get (i);
+				if (img.getWidth() == w && img.getHeight() == h) {
+					return pool.remove (i);
+				}
+			}
+		}
+		return new BufferedImage (w, h, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/* Takes back an image that was published, once nothing draws it any more. */
+	public void recycle (BufferedImage img) {
+		if (img == null || img.getType() != BufferedImage.TYPE_INT_RGB) return;
+		synchronized (pool) {
+			if (pool.size() >= POOL_MAX) {
+				pool.remove (0);	// the oldest, likely of a size no longer asked for
+			}
+			pool.add (img);
+		}
+	}
+
+	/* The pixels of an image made by take, which Raytrace can write as it does an int[]: one
+	 * 0xRRGGBB int per pixel, row by row. */
+	private static int[] pixels (BufferedImage img) {
+		return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+	}
+}
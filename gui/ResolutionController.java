@@ -0,0 +1,65 @@
+package gui;
+
+public class ResolutionController {
+
+	/* Picks a downsampling factor, frame by frame, so that frames take about target ms. Render
+	 * time goes with the number of pixels, i.e. with 1/factor^2, which is what the guesses
+	 * below go by. To keep it from flipping back and forth between two factors, it goes coarser
+	 * as soon as a frame is clearly over budget, but finer only when the finer factor is
+	 * expected to stay well under budget, and only after PATIENCE frames in a row say so. */
+
+	public static final double SLACK = 1.25;	// over budget means over target * SLACK
+	public static final double HEADROOM = 0.8;	// finer only if predicted under target * HEADROOM
+	public static final int PATIENCE = 3;
+
+	public double target;	// ms per frame
+	public int min, max;	// range of factors; min is full resolution
+
+	private int factor;
+	private int votes;	// frames in a row that asked for a finer factor
+
+	public ResolutionController (double target, int min, int max) {
+		this.target = target;
+		this.min = Math.max (1, min);
+		this.max = Math.max (this.min, max);
+		this.factor = this.min;
+	}
+
+	public int factor () {
+		return factor;
+	}
+
+	/* Back to full resolution. Returns false if it was there already. */
+	public boolean reset () {
+		votes = 0;
+		if (factor == min) return false;
+		factor = min;
+		return true;
+	}
+
+	/* Takes the time of a frame rendered at the current factor, and returns a note on what was
+	 * decided if the factor changed, or null. */
+	public String frameDone (long ms) {
+		int old = factor;
+		if (ms > target * SLACK && factor < max) {
+			// jump straight to the factor that should fit, rather than one step per frame
+			int f = (int) Math.ceil (factor * Math.sqrt (ms / target));
+			factor = Math.min (max, Math.max (factor + 1, f));
+			votes = 0;
+		} else if (factor > min && predict (ms, factor - 1) < target * HEADROOM) {
+			if (++votes >= PATIENCE) {
+				factor--;
+				votes = 0;
+			}
+		} else {
+			votes = 0;
+		}
+		if (factor == old) return null;
+		return "Frame takes about " + ms + " ms (target " + (long) target + "); downsampling " + old + " -> " + factor;
+	}
+
+	private double predict (long ms, int f) {
+		double r = (double) factor / f;
+		return ms * r * r;
+	}
+}
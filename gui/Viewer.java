@@ -9,8 +9,7 @@ import java.awt.image.BufferedImage;
 
 public class Viewer extends JPanel implements MouseListener, MouseMotionListener, MouseWheelListener {
 
-	public BufferedImage img;
-	public int[] data;
+	public BufferedImage img;	// the last finished frame; never drawn into, and given back to scheduler once replaced
 	public int xs, ys;	// dimensions of the viewer, not necessarily the resolution of the render.
 	public int xsd, ysd;	// resolution of the render.
 	private long time;
@@ -19,6 +18,8 @@ public class Viewer extends JPanel implements MouseListener, MouseMotionListener
 	private double scale = 1;
 	private int xstart, ystart;
 	private boolean dragging = false;
+	private RenderScheduler scheduler = new RenderScheduler (this);
+	private ResolutionController res = new ResolutionController (Prefs.current.DRAG_FRAME_MS, Prefs.current.DOWNSAMPLING, Prefs.current.DRAG_MAX_DOWNSAMPLING);
 
 	public Viewer (int xs, int ys) {
 		int ds = Prefs.current.DOWNSAMPLING;
@@ -27,7 +28,6 @@ public class Viewer extends JPanel implements MouseListener, MouseMotionListener
 		this.xsd = xs / ds;
 		this.ysd = ys / ds;
 		img = new BufferedImage (xsd, ysd, 1);
-		data = new int[xsd * ysd];
 	}
 
 	public void changeSize (int xs, int ys) {
@@ -35,9 +35,7 @@ public class Viewer extends JPanel implements MouseListener, MouseMotionListener
 		this.ys = ys;
 		int ds = Prefs.current.DOWNSAMPLING;
 		this.xsd = xs / ds;
-		this.ysd = ys / ds;
-		img = new BufferedImage (xsd, ysd, 1);
-		data = new int[xsd * ysd];
+		this.ysd = ys / ds;	// img is stretched until a frame of the new size comes
 	}
 
 	public void paintComponent (Graphics h) {
@@ -48,23 +46,46 @@ public class Viewer extends JPanel implements MouseListener, MouseMotionListener
 		g.drawString (time + "ms", 20, 20);
 	}
 
+	/* Hands the camera changes since the last call to the scheduler, which renders in the
+	 * background and calls publish when the frame is done. While dragging, the resolution is
+	 * whatever res says will keep up; otherwise it is xsd x ysd. While the camera moves, the
+	 * scheduler may reproject the last frame instead of tracing a new one. */
 	public void render () {
 		if (BetterSCAD.current == null || BetterSCAD.current.isCompiled == false) {
 			return;
 		}
 		Scene sc = BetterSCAD.current.sc;
-		sc.rotateStuff (phi, theta);
 		/*
 		Float3 newdir = sc.cam.dir.axisRotate (sc.cam.right.normalize(), phi);
 		newdir = newdir.axisRotate (sc.cam.up.normalize(), -theta);
 		sc.cam = sc.cam.lookAt (new Float3(0,0,0), newdir);
 		*/
-		sc.cam.scale (scale);
+		int f = dragging ? res.factor() : Prefs.current.DOWNSAMPLING;
+		boolean moving = dragging || scale != 1;
+		scheduler.request (sc, xsd, ysd, Math.max (1, xs / f), Math.max (1, ys / f), phi, theta, scale, moving && Prefs.current.REPROJECT);
+		phi = 0;
+		theta = 0;
 		scale = 1;
+	}
 
-		time = Raytrace.render (sc, data, xsd, ysd);
-		img.setRGB (0, 0, xsd, ysd, data, 0, xsd);
+	/* Called on the event thread with each pass of each finished frame; first is the coarse
+	 * pass that dragging shows. res goes by full, that pass's time scaled up to every pixel:
+	 * the pass itself traces only one in PROGRESSIVE_STEP^2 of them, and would hardly ever
+	 * look over budget. */
+	public void publish (BufferedImage frame, long time, boolean first, long full) {
+		scheduler.recycle (img);	// this is the event thread, so nothing is painting it
+		this.img = frame;
+		this.time = time;
 		repaint();
+		if (first && dragging) {
+			report (res.frameDone (full));
+		}
+	}
+
+	void report (String msg) {
+		if (msg != null && BetterSCAD.current != null) {
+			BetterSCAD.current.cons.append (msg);
+		}
 	}
 
 	public void mousePressed (MouseEvent e) {
@@ -78,6 +99,10 @@ public class Viewer extends JPanel implements MouseListener, MouseMotionListener
 		dragging = false;
 		theta = 0;
 		phi = 0;
+		if (res.reset()) {	// the last frames were coarse; redo the view at full resolution
+			report ("Drag ended; downsampling back to " + res.factor());
+			render();
+		}
 	}
 
 	public void mouseClicked (MouseEvent e) {}
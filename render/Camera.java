@@ -58,11 +58,64 @@ public class  Camera {
 	}
 
 	public Ray getRay (double x, double y) {	// x in [0..scrx] and y in [0..scry].
+		return getRay (x, y, new Ray());
+	}
+
+	/* Same as above, but fills in out instead of making a new Ray. */
+	public Ray getRay (double x, double y, Ray out) {
 		/* This is orthographic */
 		x /= scrx;
 		y /= scry;
-		Float3 start = bl.add (up.mul(1-y)).add (right.mul(x));
-		return new Ray (start, dir);
+		double u = 1-y;
+		out.frame = null;
+		out.start.set (bl.x + up.x*u + right.x*x, bl.y + up.y*u + right.y*x, bl.z + up.z*u + right.z*x);
+		out.dir.set (dir);
+		return out;
+	}
+
+	/* All the rays of the current view, to hand out per pixel without going through getRay.
+	 * Make one per frame: it doesn't follow later changes to the camera. */
+	public RayFrame frame () {
+		return new RayFrame (bl.add (up), right.mul (1.0 / scrx), up.mul (-1.0 / scry), dir);
+	}
+
+	/* The part of space that rays for pixels x0 <= x < x1, y0 <= y < y1 pass through while
+	 * inside bounds, give or take: it reaches half a pixel past the outer rays, and along dir
+	 * it spans the corners of bounds, as seen from the middle of the tile. */
+	public Bundle tileBundle (int x0, int y0, int x1, int y1, BBox bounds) {
+		Ray mid = getRay ((x0 + x1 - 1) / 2.0, (y0 + y1 - 1) / 2.0);
+		Float3 s = mid.start;
+		Float3 d = mid.dir;
+		Float3 hu = right.mul ((x1 - x0) / (2.0 * scrx));
+		Float3 hv = up.mul ((y1 - y0) / (2.0 * scry));
+		double reach = Math.abs (hu.dot (d)) + Math.abs (hv.dot (d));	// up and right needn't be square to dir
+		double dsq = d.magsq();
+		double tmin = Double.MAX_VALUE;
+		double tmax = -Double.MAX_VALUE;
+		for (int i=0; i<8; i++) {
+			double px = (i&1) == 0 ? bounds.x0 : bounds.x1;
+			double py = (i&2) == 0 ? bounds.y0 : bounds.y1;
+			double pz = (i&4) == 0 ? bounds.z0 : bounds.z1;
+			double t = ((px - s.x)*d.x + (py - s.y)*d.y + (pz - s.z)*d.z) / dsq;
+			tmin = Math.min (tmin, t);
+			tmax = Math.max (tmax, t);
+		}
+		double pad = reach / dsq + BBox.EPS / Math.sqrt (dsq);
+		tmin -= pad;
+		tmax += pad;
+		return new Bundle (mid.get ((tmin + tmax) / 2), hu, hv, d.mul ((tmax - tmin) / 2));
+	}
+
+	/* The same view, traced at xs x ys pixels. */
+	public Camera sampled (int xs, int ys) {
+		Camera c = new Camera();
+		c.bl = bl;
+		c.dir = dir;
+		c.up = up;
+		c.right = right;
+		c.scrx = xs;
+		c.scry = ys;
+		return c;
 	}
 
 	public void scale (double amt) {
@@ -0,0 +1,95 @@
+package render;
+import common.*;
+import java.util.Arrays;
+public class Footprint {
+
+	/* The pixels whose rays can hit the model at all, going by where its bounding boxes land
+	 * on the screen: the box of the root, or if it is a union, those of its children, which
+	 * leave out the gaps between them. Rectangles are taken around the projected corners of
+	 * each box, a pixel wider on every side. Everything outside them is background, which the
+	 * renderer fills in without making rays. */
+
+	public static final int MAX_RECTS = 32;	// more children than this, and the root's box is used
+
+	public int xs, ys;
+	public boolean[] covered = new boolean[0];	// indexed by y*xs + x
+	private int[] rects = new int[4 * MAX_RECTS];	// x0, y0, x1, y1 of each; x1 and y1 exclusive
+	private int n;
+
+	/* Works out the footprint of root for the rays of frame, on an xs x ys screen. */
+	public void update (Node root, RayFrame frame, int xs, int ys) {
+		this.xs = xs;
+		this.ys = ys;
+		if (covered.length < xs*ys) {
+			covered = new boolean[xs*ys];
+		}
+		n = 0;
+		if (root.bounds == null) {
+			add (0, 0, xs, ys);
+		} else if (root instanceof CSG && ((CSG) root).type == CSG.UNION && ((CSG) root).children.length <= MAX_RECTS) {
+			for (Node c : ((CSG) root).children) {
+				if (c.bounds == null) {
+					n = 0;
+					add (0, 0, xs, ys);
+					break;
+				}
+				project (c.bounds, frame);
+			}
+		} else if (root instanceof CSG && ((CSG) root).type == CSG.DIFFERENCE && ((CSG) root).children.length > 0 && ((CSG) root).children[0].bounds != null) {
+			project (((CSG) root).children[0].bounds, frame);	// what is taken away can't add to it
+		} else {
+			project (root.bounds, frame);
+		}
+		Arrays.fill (covered, 0, xs*ys, false);
+		for (int i=0; i<n; i++) {
+			int x0 = rects[4*i], y0 = rects[4*i+1], x1 = rects[4*i+2], y1 = rects[4*i+3];
+			for (int y=y0; y<y1; y++) {
+				Arrays.fill (covered, y*xs + x0, y*xs + x1, true);
+			}
+		}
+	}
+
+	/* True if any pixel x0 <= x < x1, y0 <= y < y1 may be covered. */
+	public boolean any (int x0, int y0, int x1, int y1) {
+		for (int i=0; i<n; i++) {
+			if (rects[4*i] < x1 && x0 < rects[4*i+2] && rects[4*i+1] < y1 && y0 < rects[4*i+3]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Adds the rectangle that b projects to, clipped to the screen. Pixel (x, y) has its ray at
+	 * frame.o + ex*x + ey*y, so a point's pixel coordinates are its offsets along ex and ey. */
+	private void project (BBox b, RayFrame frame) {
+		double exx = frame.ex.magsq(), eyy = frame.ey.magsq();
+		double xmin = Double.MAX_VALUE, xmax = -Double.MAX_VALUE;
+		double ymin = Double.MAX_VALUE, ymax = -Double.MAX_VALUE;
+		for (int i=0; i<8; i++) {
+			double px = ((i&1) == 0 ? b.x0 : b.x1) - frame.o.x;
+			double py = ((i&2) == 0 ? b.y0 : b.y1) - frame.o.y;
+			double pz = ((i&4) == 0 ? b.z0 : b.z1) - frame.o.z;
+			double sx = (px*frame.ex.x + py*frame.ex.y + pz*frame.ex.z) / exx;
+			double sy = (px*frame.ey.x + py*frame.ey.y + pz*frame.ey.z) / eyy;
+			xmin = Math.min (xmin, sx);
+			xmax = Math.max (xmax, sx);
+			ymin = Math.min (ymin, sy);
+			ymax = Math.max (ymax, sy);
+		}
+		int x0 = (int) Math.max (0, Math.floor (xmin) - 1);
+		int y0 = (int) Math.max (0, Math.floor (ymin) - 1);
+		int x1 = (int) Math.min (xs, Math.ceil (xmax) + 2);
+		int y1 = (int) Math.min (ys, Math.ceil (ymax) + 2);
+		if (x0 < x1 && y0 < y1) {
+			add (x0, y0, x1, y1);
+		}
+	}
+
+	private void add (int x0, int y0, int x1, int y1) {
+		rects[4*n] = x0;
+		rects[4*n+1] = y0;
+		rects[4*n+2] = x1;
+		rects[4*n+3] = y1;
+		n++;
+	}
+}
@@ -0,0 +1,157 @@
+package render;
+import common.*;
+public class GBuffer {
+
+	/* What each pixel of the last frame hit, and its shaded color before outlines were drawn
+	 * over it, kept in flat arrays indexed by y*xs + x instead of as an Intersection per pixel.
+	 * obj is null where the ray missed. */
+
+	public static final double FLAT = 1e-9;	// relative error in t that still counts as a flat facet
+
+	public int xs, ys;
+	public double[] t;
+	public Node[] obj;
+	public int[] facet;
+	public int[] rgb;
+	public int[] cost;	// ns spent on each pixel, with Prefs PROFILE
+
+	public RayFrame frame;	// the rays of the hits, once a whole frame is traced at step 1; else null
+	public boolean[] keep;	// pixels that reproject guessed well enough to only need confirming
+	public boolean[] flat;	// ... or not even that, as their t is exact
+	public boolean hinted;	// ... if set; only while a reprojected frame is traced
+	private double[] ox, oy, guess;	// for reproject: where in its pixel each point fell, and the t it suggests
+
+	public GBuffer () {
+		resize (0, 0);
+	}
+
+	/* Reallocates only when the frame gets bigger. */
+	public void resize (int xs, int ys) {
+		this.xs = xs;
+		this.ys = ys;
+		int n = xs*ys;
+		if (t == null || t.length < n) {
+			t = new double[n];
+			obj = new Node[n];
+			facet = new int[n];
+			rgb = new int[n];
+			cost = new int[n];
+			keep = new boolean[n];
+			flat = new boolean[n];
+			ox = new double[n];
+			oy = new double[n];
+			guess = new double[n];
+		}
+	}
+
+	public void set (int loc, double tv, Node o, int f, int c) {
+		t[loc] = tv;
+		obj[loc] = o;
+		facet[loc] = f;
+		rgb[loc] = c;
+	}
+
+	public void setNone (int loc, int c) {
+		t[loc] = -1;
+		obj[loc] = null;
+		facet[loc] = -1;
+		rgb[loc] = c;
+	}
+
+	/* Copies pixel (x, y) over the size x size block that it is the top left corner of, for
+	 * frames that are traced at every size-th pixel. */
+	public void spread (int x, int y, int size) {
+		int from = y*xs + x;
+		int x1 = Math.min (x + size, xs);
+		int y1 = Math.min (y + size, ys);
+		for (int by=y; by<y1; by++) {
+			for (int bx=x; bx<x1; bx++) {
+				int loc = by*xs + bx;
+				t[loc] = t[from];
+				obj[loc] = obj[from];
+				facet[loc] = facet[from];
+				rgb[loc] = rgb[from];
+				cost[loc] = cost[from];
+			}
+		}
+	}
+
+	/* Guesses this frame, for the rays of to, from the hits of the one before: every hit
+	 * point of from is moved to the pixel it now falls on, keeping the nearest where several
+	 * land on one. Pixels that get no point (they have come into view, or are background) are
+	 * left empty. A guess is only kept if it is not on an edge (see isEdge) and its
+	 * neighbours got guesses too, since that is where points from different surfaces mix,
+	 * or something new may show through. The kept pixels still have to be confirmed on their
+	 * own ray, as the point was for a ray a fraction of a pixel away; their t is moved to
+	 * that ray along the slope of the depth between the neighbours. Where the depth of the
+	 * neighbours is linear, the pixel is on a flat facet, which makes that t exact, and the
+	 * pixel is marked flat. The rays are taken to be orthographic, with ex, ey and dir square
+	 * to each other. */
+	public void reproject (GBuffer from, RayFrame to, double tol) {
+		int n = xs*ys;
+		for (int i=0; i<n; i++) {
+			obj[i] = null;
+			facet[i] = -1;
+			t[i] = -1;
+		}
+		RayFrame f = from.frame;
+		double exx = to.ex.magsq(), eyy = to.ey.magsq(), dd = to.dir.magsq();
+		for (int py=0; py<from.ys; py++) {
+			for (int px=0; px<from.xs; px++) {
+				int src = py*from.xs + px;
+				if (from.obj[src] == null) continue;
+				double ft = from.t[src];
+				double x = f.o.x + f.ex.x*px + f.ey.x*py + f.dir.x*ft - to.o.x;
+				double y = f.o.y + f.ex.y*px + f.ey.y*py + f.dir.y*ft - to.o.y;
+				double z = f.o.z + f.ex.z*px + f.ey.z*py + f.dir.z*ft - to.o.z;
+				double fx = (x*to.ex.x + y*to.ex.y + z*to.ex.z) / exx;
+				double fy = (x*to.ey.x + y*to.ey.y + z*to.ey.z) / eyy;
+				long nx = Math.round (fx);
+				long ny = Math.round (fy);
+				if (nx < 0 || nx >= xs || ny < 0 || ny >= ys) continue;
+				double nt = (x*to.dir.x + y*to.dir.y + z*to.dir.z) / dd;
+				int loc = (int) ny*xs + (int) nx;
+				if (obj[loc] == null || nt < t[loc]) {
+					t[loc] = nt;
+					obj[loc] = from.obj[src];
+					facet[loc] = from.facet[src];
+					ox[loc] = fx - nx;
+					oy[loc] = fy - ny;
+				}
+			}
+		}
+		for (int y=0; y<ys; y++) {
+			for (int x=0; x<xs; x++) {
+				int loc = y*xs + x;
+				keep[loc] = obj[loc] != null && x > 0 && x < xs-1 && y > 0 && y < ys-1 && !isEdge (loc, tol);
+				flat[loc] = false;
+				if (keep[loc]) {
+					double dtx = (t[loc+1] - t[loc-1]) / (2 + ox[loc+1] - ox[loc-1]);
+					double dty = (t[loc+xs] - t[loc-xs]) / (2 + oy[loc+xs] - oy[loc-xs]);
+					guess[loc] = t[loc] - ox[loc]*dtx - oy[loc]*dty;
+					double bx = t[loc-1] + dtx * (1 + ox[loc] - ox[loc-1]) - t[loc];	// off the line through the neighbours
+					double by = t[loc-xs] + dty * (1 + oy[loc] - oy[loc-xs]) - t[loc];
+					flat[loc] = Math.abs (bx) + Math.abs (by) < FLAT * (1 + Math.abs (t[loc]));
+				}
+			}
+		}
+		for (int i=0; i<n; i++) {
+			if (keep[i]) t[i] = guess[i];
+		}
+	}
+
+	public boolean sameFacet (int a, int b) {
+		return obj[a] == obj[b] && facet[a] == facet[b];
+	}
+
+	/* True if one of the 4 neighbours of loc (which mustn't be on the border) hit another
+	 * facet, or the same one more than tol further along the ray: the pixels where one sample
+	 * isn't enough. */
+	public boolean isEdge (int loc, double tol) {
+		return differs (loc, loc-xs, tol) || differs (loc, loc+xs, tol) || differs (loc, loc-1, tol) || differs (loc, loc+1, tol);
+	}
+
+	private boolean differs (int a, int b, double tol) {
+		return !sameFacet (a, b) || (obj[a] != null && Math.abs (t[a] - t[b]) > tol);
+	}
+}
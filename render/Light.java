@@ -13,6 +13,11 @@ public class Light {
 		return col.mul (clamp (dir.dot(grad)) * Math.abs (view.dot(grad)));
 	}
 
+	/* The scalar part of getContrib, so that shading doesn't have to allocate. */
+	public double factor (Float3 view, Float3 grad) {
+		return clamp (dir.dot(grad)) * Math.abs (view.dot(grad));
+	}
+
 	public static double clamp (double x) {
 		return x < 0 ? 0 : (x > 1 ? 1 : x);
 	}
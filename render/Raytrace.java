@@ -2,65 +2,225 @@ package render ;
 import common.*;
 import java.awt.*;
 import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 public class  Raytrace {
 
-	public static final double STEP = 0.0001;
+	private static ExecutorService pool;
+	private static int pool_threads;
 
+	/* The frame is split into square tiles which the workers pull off a shared counter, so
+	 * a tile that is expensive (lots of geometry) doesn't hold up the others. */
 	public static long render (Scene s, int[] data, int xs, int ys) {
+		return render (s, data, xs, ys, null);
+	}
+
+	/* Same, but gives up between tiles once cancel is set, and returns -1 if it did; data is
+	 * then only partly drawn. */
+	public static long render (Scene s, int[] data, int xs, int ys, AtomicBoolean cancel) {
+		return render (s, data, xs, ys, 1, false, cancel);
+	}
+
+	/* A coarse frame, traced at every step-th pixel only and blown up to full size. With refine
+	 * set, it reuses the pixels of the frame before it, which must have been traced at twice
+	 * the step with the same camera; so passes at 8, 4, 2 and 1 make a full frame for the
+	 * price of one. The traced colors stay in s.gbuf, and data gets them with outlines.
+	 * Full resolution frames (step 1) are then antialiased, with Prefs ANTIALIAS: the pixels
+	 * the gbuf shows to be on an edge are traced again, more finely.
+	 * With Prefs PROFILE, data shows what each pixel cost instead (see heatmap), and the
+	 * counts of the scene's ProfileNodes cover the passes since the last one without refine. */
+	public static long render (Scene s, int[] data, int xs, int ys, int step, boolean refine, AtomicBoolean cancel) {
+		return trace (s, data, xs, ys, step, refine, false, cancel);
+	}
+
+	/* A full resolution frame for a camera that has moved a little since the last frame, which
+	 * is reprojected to the new view (see GBuffer.reproject) so that mostly the pixels along
+	 * edges and those that have come into view are traced; the rest only have their surface
+	 * found again along their own ray, near where it was. Surfaces that something new has
+	 * moved in front of go unnoticed, so the frame should be followed by a plain render once
+	 * the camera stops. It isn't antialiased. If s.gbuf holds no whole frame, this is just
+	 * render. */
+	public static long reproject (Scene s, int[] data, int xs, int ys, AtomicBoolean cancel) {
+		return trace (s, data, xs, ys, 1, false, s.gbuf.frame != null, cancel);
+	}
+
+	private static long trace (Scene s, int[] data, int xs, int ys, int step, boolean refine, boolean reproject, AtomicBoolean cancel) {
 		long time = System.currentTimeMillis();
-		int bkgr = s.bkgr_col.getImgRGB();
+		int nthreads = Math.max (1, Prefs.current.RENDER_THREADS);
+		int tsize = Math.max (1, Prefs.current.TILE_SIZE);
+		tsize = (tsize + step - 1) / step * step;	// so that no block spreads into another tile
 
-		System.out.println ("Will trace " + xs + " x " + ys + " (" + (xs * ys) + " px)");
-		int norm_csgct = 0;
+		System.out.println ("Will trace " + xs + " x " + ys + " (" + (xs * ys) + " px) on " + nthreads + " threads");
 		s.il.csg_ct = 0;
+		boolean profile = Prefs.current.PROFILE;
+		if (profile && !refine) {
+			ProfileNode.reset (s.root);
+		}
 
-		Intersection[][] objs = new Intersection[ys][xs];
+		RayFrame frame = s.cam.frame();
+		double tol = Prefs.current.EDGE_DEPTH * frame.ex.mag() / frame.dir.mag();	// in t, which isn't in pixel widths
+		GBuffer prev = s.gbuf;
+		if (reproject) {	// into the spare buffer, as the old hits are needed until all are moved
+			s.gbuf = s.spare;
+			s.spare = prev;
+			s.gbuf.resize (xs, ys);
+			s.gbuf.reproject (prev, frame, tol);
+			s.gbuf.hinted = true;
+		} else if (step > 1 || prev.frame == null || !prev.frame.sameAs (frame)) {
+			prev.frame = null;	// it's getting overwritten. Only a retrace of the same frame is still one if cancelled
+		}
+		GBuffer gbuf = s.gbuf;
+		gbuf.resize (xs, ys);
+		Footprint fp = null;
+		if (Prefs.current.SCREEN_BOUNDS) {
+			fp = s.footprint;
+			fp.update (s.root, frame, xs, ys);
+		}
+		int ipts_max = s.root.findIptsMax();
+		AtomicInteger next = new AtomicInteger (0);
 
-		for (int x=0; x<xs; x++) {
-			for (int y=0; y<ys; y++) {
-				Ray r = s.cam.getRay (x, y);
-				Intersection i = s.intersection (r);
-				int loc = y*xs + x;
-//				System.out.println ("Ipt t = " + (i == Intersection.NONE ? "X" : i.t));
-				if (i == Intersection.NONE) {
-					// background
-					data[loc] = bkgr;
-					objs[y][x] = Intersection.NONE;
-				} else {
-					// get the normal. This is just the gradient of the csg function, since
-					// the normal to a level set is the gradient of the function.
-					// This gradient is computed here by the secant method.
-					Float3 ipt = r.get (i.t);
-					double fpt = s.root.csg (ipt);
-					double fdx = s.root.csg (ipt.add (new Float3 (STEP, 0, 0))) - fpt;
-					double fdy = s.root.csg (ipt.add (new Float3 (0, STEP, 0))) - fpt;
-					double fdz = s.root.csg (ipt.add (new Float3 (0, 0, STEP))) - fpt;
-					norm_csgct += 4;
-					Float3 norm = new Float3 (fdx, fdy, fdz).normalize();
-		//			System.out.println ("(x, y) = (" + x + ", " + y + "); ipoint = " + ipt + "; csg = " + fpt);
-					Float3 light = Prefs.current.AMBIENT;
-					for (Light l : s.lights) {
-						light = light.add (l.getContrib (ipt, r.dir, norm));
-					}
-					Float3 col = i.obj.mat.col.mul (light);
-
-					data[loc] = col.clamp().getImgRGB();
-					objs[y][x] = i;
-				}
+		ArrayList<TileWorker> workers = new ArrayList<TileWorker>();
+		for (int i=0; i<nthreads; i++) {
+			TileWorker w = new TileWorker (s, frame, ipts_max, gbuf, xs, ys, tsize, step, refine, next, cancel);
+			w.depth_tol = tol;
+			w.footprint = fp;
+			w.profile = profile;
+			workers.add (w);
+		}
+		runAll (workers);
+		gbuf.hinted = false;
+		if (cancel != null && cancel.get()) {
+			if (reproject) {	// back to the last whole frame, for the next try
+				s.spare = gbuf;
+				s.gbuf = prev;
 			}
+			System.out.println ("Render cancelled");
+			return -1;
 		}
+		gbuf.frame = (step == 1) ? frame : null;
 
+		System.arraycopy (gbuf.rgb, 0, data, 0, xs*ys);
 		for (int x=1; x<xs-1; x++) {
 			for (int y=1; y<ys-1; y++) {
 				int loc = y*xs + x;
-				Intersection n = objs[y][x];
-				if ( !n.sameFacet (objs[y-1][x]) || !n.sameFacet (objs[y+1][x]) || !n.sameFacet (objs[y][x-1]) || !n.sameFacet (objs[y][x+1])) {
+				if ( !gbuf.sameFacet (loc, loc-xs) || !gbuf.sameFacet (loc, loc+xs) || !gbuf.sameFacet (loc, loc-1) || !gbuf.sameFacet (loc, loc+1)) {
 					data[loc] = 0;
 				}
 			}
 		}
-		System.out.println ("Intersection cull csg count: " + s.il.csg_ct + "; normal csg count: " + norm_csgct + "; TOTAL = " + (s.il.csg_ct + norm_csgct));
+
+		if (step == 1 && !reproject && Prefs.current.ANTIALIAS) {
+			AtomicInteger anext = new AtomicInteger (0);
+			for (TileWorker w : workers) {
+				w.antialias (data, anext);
+			}
+			runAll (workers);
+			if (cancel != null && cancel.get()) {
+				System.out.println ("Render cancelled");
+				return -1;
+			}
+		}
+		if (profile) {
+			heatmap (gbuf, data);
+		}
+		int confirmed = 0;
+		for (TileWorker w : workers) {
+			s.il.csg_ct += w.il.csg_ct;
+			confirmed += w.confirmed;
+		}
+		if (reproject) {
+			System.out.println ("Reprojected " + confirmed + " of " + (xs * ys) + " px");
+		}
+		System.out.println ("Intersection cull csg count: " + s.il.csg_ct);
 		return System.currentTimeMillis() - time;
 	}
-	
+
+	private static void runAll (ArrayList<TileWorker> workers) {
+		if (workers.size() == 1) {
+			workers.get(0).call();
+			return;
+		}
+		try {
+			for (Future<TileWorker> f : getPool (workers.size()).invokeAll (workers)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException ("Render worker failed", e.getCause());
+		}
+	}
+
+	/* Paints the cost of each pixel over the frame in data, from blue (cheapest) through green
+	 * to red (dearest), on a log scale as costs span orders of magnitude. The scale runs from
+	 * the 1st to the 99th percentile, so that a few pixels that met the JIT or the collector
+	 * don't wash out the rest. A little of the picture shows through, so the model can still
+	 * be made out. */
+	private static void heatmap (GBuffer gbuf, int[] data) {
+		int n = gbuf.xs * gbuf.ys;
+		int[] hist = new int[33];	// by log2 of the cost
+		for (int i=0; i<n; i++) {
+			hist[32 - Integer.numberOfLeadingZeros (Math.max (0, gbuf.cost[i]))]++;
+		}
+		int lo = 0, hi = 32;
+		for (int b=0, sum=0; b<33; b++) {
+			sum += hist[b];
+			if (sum <= n / 100) lo = b + 1;
+			if (sum >= n - n / 100) {
+				hi = b + 1;
+				break;
+			}
+		}
+		double scale = 1.0 / Math.max (1, hi - lo);
+		for (int i=0; i<n; i++) {
+			double lg = Math.log (Math.max (1, gbuf.cost[i])) / Math.log (2);
+			double v = Math.min (1, Math.max (0, (lg - lo) * scale));
+			double r = Math.max (0, 2*v - 1);
+			double g = 1 - Math.abs (2*v - 1);
+			double b = Math.max (0, 1 - 2*v);
+			int c = data[i];
+			double grey = (((c >> 16) & 0xff) + ((c >> 8) & 0xff) + (c & 0xff)) / (3 * 255.0);
+			data[i] = Float3.toImgRGB (0.7*r + 0.3*grey, 0.7*g + 0.3*grey, 0.7*b + 0.3*grey);
+		}
+	}
+
+	/* Shades the hit at t along r on the surface of obj, and returns it as an image pixel.
+	 * tmp is the caller's scratch vector, so nothing is allocated. */
+	public static int shade (Scene s, Ray r, double t, Node obj, Float3 tmp) {
+		// get the normal. The hit point is on the surface of obj, so its gradient
+		// (carried out through the transforms above it) is the normal of the whole model.
+		tmp.set (r.getX (t), r.getY (t), r.getZ (t));
+		obj.surfaceNormal (tmp, tmp);
+		Float3 amb = Prefs.current.AMBIENT;
+		double lr = amb.x;
+		double lg = amb.y;
+		double lb = amb.z;
+		for (int i=0; i<s.lights.size(); i++) {
+			Light l = s.lights.get (i);
+			double f = l.factor (r.dir, tmp);
+			lr += l.col.x * f;
+			lg += l.col.y * f;
+			lb += l.col.z * f;
+		}
+		Float3 c = obj.mat.col;
+		return Float3.toImgRGB (Float3.clamp (c.x * lr), Float3.clamp (c.y * lg), Float3.clamp (c.z * lb));
+	}
+
+	private static synchronized ExecutorService getPool (int nthreads) {
+		if (pool == null || pool_threads != nthreads) {
+			if (pool != null) pool.shutdown();
+			pool = Executors.newFixedThreadPool (nthreads, new ThreadFactory () {
+				public Thread newThread (Runnable r) {
+					Thread t = new Thread (r, "Raytrace worker");
+					t.setDaemon (true);	// don't keep the VM alive after the window closes
+					return t;
+				}
+			});
+			pool_threads = nthreads;
+		}
+		return pool;
+	}
+
 }
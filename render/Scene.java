@@ -1,6 +1,10 @@
 package render;
 import common.*;
 import java.util.ArrayList;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 public class Scene {
 
 	public Camera cam;
@@ -8,10 +12,25 @@ public class Scene {
 	public Node root;
 	public Float3 bkgr_col;
 	public IList il;
+	public volatile Field field;	// root's csg, compiled to a Tape and then a class if Prefs say so
+	private FutureTask<Field> compiling;	// the class, or null if it isn't wanted
+
+	private static final WeakHashMap<Node, FutureTask<Field>> classes = new WeakHashMap<Node, FutureTask<Field>>();	// by root
+	public GBuffer gbuf = new GBuffer();	// per-pixel hits of the last frame
+	public GBuffer spare = new GBuffer();	// for Raytrace.reproject to build the next one in
+	public Footprint footprint = new Footprint();	// where on screen the last frame could hit anything
+
+	public static final int SURFACE_FILTER = 0;	// gather every primitive hit, keep the nearest one on the root's surface
+	public static final int SPANS = 1;			// merge inside/outside spans bottom-up; see Node.spanIntersection
+	public static final int SPHERE_TRACE = 2;	// march along the ray by Node.dist; see Node.marchIntersection
+	public int engine = Prefs.current.RENDER_ENGINE;
 
 	public Scene (Node r) {
-		root = r;
+		root = Prefs.current.PROFILE ? ProfileNode.instrument (r) : r;
+		field = compileField (root);
 		il = new IList (root);
+		il.field = field;
+		startClassCompile();
 		cam = new Camera();
 		lights = new ArrayList<Light>();
 		bkgr_col = new Float3 (0.85, 0.95, 0.9);
@@ -20,12 +39,69 @@ public class Scene {
 
 	public Scene (Camera c, Node root, ArrayList<Light> lights) {
 		this.cam = c;
-		this.root = root;
-		this.il = new IList (root);
+		this.root = Prefs.current.PROFILE ? ProfileNode.instrument (root) : root;
+		this.field = compileField (this.root);
+		this.il = new IList (this.root);
+		this.il.field = field;
+		startClassCompile();
 		this.lights = lights;
 		this.bkgr_col = new Float3 (0.85, 0.95, 0.9);
 	}
 
+	/* Profiling times the tree itself, so it is never compiled then. */
+	private static Field compileField (Node root) {
+		if (Prefs.current.CSG_TAPE && !Prefs.current.PROFILE) {
+			return Tape.compile (root);
+		}
+		return root;
+	}
+
+	/* Generating and compiling a class takes a while, so it happens in the background and frames
+	 * walk the tree (or use the tape) until it's done. Frames that start after the swap pick up
+	 * the class. Scenes of the same root share the one compile; see also FieldCompiler, which
+	 * keeps the classes of trees it has seen before. */
+	private void startClassCompile () {
+		if (!Prefs.current.CSG_CLASS || Prefs.current.PROFILE) return;
+		synchronized (classes) {
+			compiling = classes.get (root);
+			if (compiling == null) {
+				final Node r = root;
+				compiling = new FutureTask<Field> (new Callable<Field> () {
+					public Field call () {
+						return FieldCompiler.compile (r);
+					}
+				});
+				classes.put (root, compiling);
+			}
+		}
+		Thread t = new Thread (new Runnable () {
+			public void run () {
+				compiling.run();	// nothing if another scene's thread has run it
+				waitForClass();
+			}
+		}, "csg compiler");
+		t.setDaemon (true);
+		t.start();
+	}
+
+	/* Waits for the class being compiled in the background, if there is one, and swaps it in. */
+	public void waitForClass () {
+		if (compiling == null) {
+			return;
+		}
+		try {
+			Field f = compiling.get();
+			if (f != null && field != f) {
+				field = f;
+				il.field = f;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println ("Couldn't compile csg to a class: " + e.getCause());
+		}
+	}
+
 	public void rotateStuff (double phi, double theta) {	// rotate camera and lights
 		Float3 newdir = cam.dir.axisRotate (cam.right.normalize(), phi);
 		newdir = newdir.axisRotate (cam.up.normalize(), -theta);
@@ -37,41 +113,27 @@ public class Scene {
 		}
 	}
 
-	public static double STEPSIZE_MIN = 0.05;
-	public static double MAX_DERIV_FAC = 10;
-	public static double MINISTEP = STEPSIZE_MIN/20;
-	public static double FAR_PLANE = 100;
-
 	public Intersection intersection (Ray r) {
-		return root.intersection (il, r);
-		
-		/*
-		double t = 0;
-		double STMIN = STEPSIZE_MIN;// * (0.8 + 0.4*Math.random());
-		int i = 0;
-		while (t < FAR_PLANE) {
-			i++;
-			double d = root.dist (r.get(t));
-			if (Math.abs (d) < STMIN) {
-				il.csg_ct += i;
-				return new Intersection (t, null);
-			}
-			i++;
-			double e = root.dist (r.get(t + MINISTEP));
-			double deriv = (e-d)/MINISTEP;
-			if (deriv > 0) {	// distance increasing
-				t += Math.max (e, STMIN);
-			} else {
-				if (deriv < -1) {
-					System.out.println ("INCONSISTENT DISTANCE!");
-				}
-				double dfac = Math.min(-1/deriv, MAX_DERIV_FAC);
-				t += Math.max (d*dfac, STMIN);
-			}
+		if (!intersection (il, r)) {
+			return Intersection.NONE;
+		}
+		return new Intersection (il.hit_t, il.hit_obj, il.hit_facet);
+	}
+
+	/* For callers that bring their own IList, e.g. render threads. The hit is left in il's
+	 * hit_ fields; returns false on a miss. */
+	public boolean intersection (IList il, Ray r) {
+		return intersection (il, r, root);
+	}
+
+	/* Same, but for a tree that stands in for root, e.g. root pruned to one tile. */
+	public boolean intersection (IList il, Ray r, Node tree) {
+		if (engine == SPANS) {
+			return tree.spanIntersection (il, r);
+		} else if (engine == SPHERE_TRACE) {
+			return tree.marchIntersection (il, r);
 		}
-		il.csg_ct += i;
-		return Intersection.NONE;
-		*/
+		return tree.intersection (il, r);
 	}
 
 		
@@ -0,0 +1,260 @@
+package render;
+import common.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+public class TileWorker implements Callable<TileWorker> {
+
+	/* Traces tiles of one frame until there are none left, or until cancel is set (which is
+	 * checked between tiles). Every worker owns its IList, ray and scratch vector, so the
+	 * only state shared between threads is the output (gbuf), and each tile writes a
+	 * disjoint part of that. Nothing is allocated per pixel.
+	 * For a coarse frame only every step-th pixel is traced, and spread over the step x step
+	 * block below and right of it; tiles are a multiple of step. With refine set, the pixels
+	 * a pass at twice the step has already traced are left alone.
+	 * With Prefs PRUNE_TILES, the tree is pruned to the part of space each tile's rays go
+	 * through, and again for each quarter of the tile, so pixels are traced against only the
+	 * few primitives near them (or not at all, where there is nothing). Hits in a pruned
+	 * region are checked by walking the pruned tree, not s.field: a class can't be generated
+	 * per region, and a Tape built for each pruned tree (cached by tree, per worker) made
+	 * frames no faster and often slower, as a walk of a few primitives is as cheap as a Tape.
+	 * After antialias, the same tiles are walked again, and only the edge pixels of the
+	 * finished gbuf are traced some more; see smooth.
+	 * In a reprojected frame (gbuf.hinted), pixels with a good guess are confirmed instead of
+	 * traced. Pixels outside the footprint are background, as are whole tiles that miss it.
+	 * With profile set, the time each pixel takes goes into gbuf.cost. */
+
+	public static final int CONFIRM_STEPS = 4;
+	public static final double DT = 1e-6;	// for the slope of the field along a ray
+
+	public Scene s;
+	public RayFrame frame;	// the camera's rays
+	public IList il;
+	public GBuffer gbuf;
+	public int xs, ys;
+	public int tsize;	// tile edge length in pixels
+	public int step;	// trace every step-th pixel
+	public boolean refine;
+	public int[] data;	// where smooth puts edge pixels; null outside the antialiasing pass
+	public double depth_tol;	// t difference between neighbours that counts as an edge
+	public int confirmed;	// reprojected pixels that didn't need tracing
+	public Footprint footprint;	// pixels outside it are background; null if not known
+	public boolean profile;
+
+	private AtomicInteger next;
+	private AtomicBoolean cancel;	// may be null
+	private Ray ray = new Ray();
+	private Float3 tmp = new Float3();
+	private Field field;	// this thread's copy of s.field, for when the tree isn't pruned
+	private Node[] sobj = new Node[16];	// what the points of smooth's grid hit
+	private int[] sfacet = new int[16];
+
+	public TileWorker (Scene s, RayFrame frame, int ipts_max, GBuffer gbuf, int xs, int ys, int tsize, int step, boolean refine, AtomicInteger next, AtomicBoolean cancel) {
+		this.s = s;
+		this.frame = frame;
+		this.il = new IList (ipts_max);
+		this.field = s.field.local();
+		this.il.field = field;
+		this.gbuf = gbuf;
+		this.xs = xs;
+		this.ys = ys;
+		this.tsize = tsize;
+		this.step = step;
+		this.refine = refine;
+		this.next = next;
+		this.cancel = cancel;
+	}
+
+	/* Turns this worker into one for the antialiasing pass, which runs over the tiles again
+	 * (taking them from next) once the gbuf is complete. */
+	public void antialias (int[] data, AtomicInteger next) {
+		this.data = data;
+		this.next = next;
+	}
+
+	public int tileCount () {
+		return ((xs + tsize - 1) / tsize) * ((ys + tsize - 1) / tsize);
+	}
+
+	public TileWorker call () {
+		int ntx = (xs + tsize - 1) / tsize;
+		int ntiles = tileCount();
+		int t;
+		while ((cancel == null || !cancel.get()) && (t = next.getAndIncrement()) < ntiles) {
+			int x0 = (t % ntx) * tsize;
+			int y0 = (t / ntx) * tsize;
+			int x1 = Math.min (x0 + tsize, xs);
+			int y1 = Math.min (y0 + tsize, ys);
+			if (footprint != null && !footprint.any (x0, y0, x1, y1)) {
+				tracePixels (x0, y0, x1, y1, null);
+			} else if (Prefs.current.PRUNE_TILES && s.root.bounds != null) {
+				traceRegion (s.root, x0, y0, x1, y1);
+			} else {
+				tracePixels (x0, y0, x1, y1, s.root);
+			}
+		}
+		return this;
+	}
+
+	private void traceRegion (Node tree, int x0, int y0, int x1, int y1) {
+		int m = (data != null) ? 1 : 0;	// smooth looks up to 3/4 of a pixel outside the region
+		Bundle b = s.cam.tileBundle (x0 - m, y0 - m, x1 + m, y1 + m, tree.bounds);
+		Node p = b.misses (tree.bounds) ? null : tree.prune (b);
+		if (p == null) {
+			tracePixels (x0, y0, x1, y1, null);
+			return;
+		}
+		int min = Prefs.current.PRUNE_MIN_TILE;
+		if ((x1 - x0 <= min && y1 - y0 <= min) || p == tree) {	// quarters are unlikely to do better when this did nothing
+			tracePixels (x0, y0, x1, y1, p);
+			return;
+		}
+		int xm = (x1 - x0 > min) ? (x0 + x1) / 2 : x1;
+		int ym = (y1 - y0 > min) ? (y0 + y1) / 2 : y1;
+		traceRegion (p, x0, y0, xm, ym);
+		if (xm < x1) traceRegion (p, xm, y0, x1, ym);
+		if (ym < y1) traceRegion (p, x0, ym, xm, y1);
+		if (xm < x1 && ym < y1) traceRegion (p, xm, ym, x1, y1);
+	}
+
+	/* Traces the pixels of a region against tree, or fills them with background if it's null. */
+	private void tracePixels (int x0, int y0, int x1, int y1, Node tree) {
+		il.field = (tree == s.root) ? field : tree;
+		if (data != null) {
+			for (int y=Math.max (y0, 1); y<Math.min (y1, ys-1); y++) {
+				for (int x=Math.max (x0, 1); x<Math.min (x1, xs-1); x++) {
+					if (gbuf.isEdge (y*xs + x, depth_tol)) {
+						long t = profile ? System.nanoTime() : 0;
+						smooth (x, y, tree);
+						if (profile) {
+							gbuf.cost[y*xs + x] += (int) (System.nanoTime() - t);
+						}
+					}
+				}
+			}
+			return;
+		}
+		int ystart = (y0 + step - 1) / step * step;
+		int xstart = (x0 + step - 1) / step * step;
+		for (int y=ystart; y<y1; y+=step) {
+			frame.ray (xstart - step, y, ray);
+			for (int x=xstart; x<x1; x+=step) {
+				frame.advance (ray, step);
+				if (refine && x % (2*step) == 0 && y % (2*step) == 0) {
+					continue;
+				}
+				if (profile) {
+					long t = System.nanoTime();
+					trace (x, y, tree);
+					gbuf.cost[y*xs + x] = (int) (System.nanoTime() - t);
+				} else {
+					trace (x, y, tree);
+				}
+				if (step > 1) {
+					gbuf.spread (x, y, step);
+				}
+			}
+		}
+	}
+
+	/* Traces pixel (x, y), whose ray is in ray already. */
+	private void trace (int x, int y, Node tree) {
+		int loc = y*xs + x;
+		if (tree == null || (footprint != null && !footprint.covered[loc])) {
+			gbuf.setNone (loc, s.bkgr_col.getImgRGB());
+			return;
+		}
+		if (gbuf.hinted && gbuf.keep[loc] && confirm (loc)) {
+			return;
+		}
+		if (!s.intersection (il, ray, tree)) {
+			gbuf.setNone (loc, s.bkgr_col.getImgRGB());
+			return;
+		}
+		gbuf.set (loc, il.hit_t, il.hit_obj, il.hit_facet, Raytrace.shade (s, ray, il.hit_t, il.hit_obj, tmp));
+	}
+
+	/* Looks for the surface that pixel loc was guessed to show, along its ray near the guessed
+	 * t, with a few steps of Newton's method on the field (the slope is only taken once, as
+	 * it hardly changes over such a short way). If found, the pixel is set to it, as a trace
+	 * would. On a flat facet the guess is taken as it is. */
+	private boolean confirm (int loc) {
+		Field f = il.field;
+		double t0 = gbuf.t[loc];
+		double t = t0;
+		double v = gbuf.flat[loc] ? 0 : f.eval (ray.getX (t), ray.getY (t), ray.getZ (t));
+		double d = 0;
+		for (int i=0; Math.abs (v) >= 1e-6; i++) {
+			if (i == CONFIRM_STEPS) {
+				return false;
+			}
+			if (i == 0) {
+				d = (f.eval (ray.getX (t + DT), ray.getY (t + DT), ray.getZ (t + DT)) - v) / DT;
+				if (d == 0) {
+					return false;
+				}
+			}
+			t -= v / d;
+			v = f.eval (ray.getX (t), ray.getY (t), ray.getZ (t));
+		}
+		if (Math.abs (t - t0) > depth_tol) {	// some other part of the surface
+			return false;
+		}
+		Node o = gbuf.obj[loc];
+		gbuf.set (loc, t, o, gbuf.facet[loc], Raytrace.shade (s, ray, t, o, tmp));
+		confirmed++;
+		return true;
+	}
+
+	/* Antialiases an edge pixel, outline included. It is traced on a 4 x 4 grid of points
+	 * half a pixel apart, centered on the pixel; the middle 2 x 2 are its samples, and the
+	 * rest are there to tell which samples lie on an outline: those whose neighbours on the
+	 * grid, half a pixel to either side, hit different facets. That makes the outline one
+	 * pixel wide, centered on the facet boundary, and the pixel gets the average color of its
+	 * samples, darkened by the fraction of them on the outline. The grid's corners are never
+	 * needed, so this is 12 rays, 4 of them shaded. */
+	private void smooth (int x, int y, Node tree) {
+		int r = 0, g = 0, b = 0, dark = 0;
+		for (int j=0; j<4; j++) {
+			for (int i=0; i<4; i++) {
+				boolean inner = (i == 1 || i == 2) && (j == 1 || j == 2);
+				if (!inner && (i == 0 || i == 3) && (j == 0 || j == 3)) {
+					continue;
+				}
+				int k = j*4 + i;
+				sobj[k] = null;
+				sfacet[k] = -1;
+				int c = s.bkgr_col.getImgRGB();
+				if (tree != null) {
+					frame.ray (x + (i - 1.5) / 2, y + (j - 1.5) / 2, ray);
+					if (s.intersection (il, ray, tree)) {
+						sobj[k] = il.hit_obj;
+						sfacet[k] = il.hit_facet;
+						if (inner) {
+							c = Raytrace.shade (s, ray, il.hit_t, il.hit_obj, tmp);
+						}
+					}
+				}
+				if (inner) {
+					r += (c >> 16) & 0xff;
+					g += (c >> 8) & 0xff;
+					b += c & 0xff;
+				}
+			}
+		}
+		for (int j=1; j<3; j++) {
+			for (int i=1; i<3; i++) {
+				int k = j*4 + i;
+				if (!same (k-1, k+1) || !same (k-4, k+4)) {
+					dark++;
+				}
+			}
+		}
+		int lit = 4 - dark;
+		data[y*xs + x] = ((r * lit / 16) << 16) | ((g * lit / 16) << 8) | (b * lit / 16);
+	}
+
+	private boolean same (int a, int b) {
+		return sobj[a] == sobj[b] && sfacet[a] == sfacet[b];
+	}
+}
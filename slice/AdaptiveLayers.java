@@ -0,0 +1,200 @@
+package slice;
+import common.*;
+import java.util.Arrays;
+public class AdaptiveLayers {
+
+	/* Chooses layer heights from the slope of the model's surface: thick where its walls are
+	 * upright, thin where it is nearly flat. A layer of height h leaves steps on a surface
+	 * whose unit normal has a z component nz that stand h nz out from it, along the normal,
+	 * so at each height a layer may be cusp / nz thick, kept from hmin to hmax.
+	 * The slope comes from a quick pass before slicing: a grid of rays x rays upright rays is
+	 * traced through the model (pruned to each few rays along a row, as SliceWorker's blocks
+	 * are), and at each hit on its surface the gradient of csg gives nz, of which the
+	 * greatest is kept for each bin of height bin. Upright walls are never hit
+	 * by upright rays, which is as well, as they are what wants thick layers; but a sloping
+	 * strip narrow enough to slip between the rays can get layers thicker than cusp allows.
+	 * The same rays give the area of the section in each bin, and the length of its outline
+	 * (from where neighbouring rays disagree on inside, times pi/4, which makes up for the
+	 * grid's steps on average over directions). From those, the time the walls and infill
+	 * of the plan will take to print is estimated, and that of uniform layers, to compare. */
+
+	public static final int BLOCK = 8;	// rays along a row traced against the model pruned to them
+
+	public Node root;
+	public double hmin, hmax;
+	public double cusp;
+	public int rays;	// along each side of the grid
+	public double bin;	// height of the bins of the pass
+	public double uniform_h;	// of the layers to compare with
+	public double z0, z1;	// the model's bottom and top
+
+	public double[] slope;	// greatest nz, by bin
+	public double[] area, edge;	// of the section, by bin
+	public int layers;	// in the plan
+	public double seconds, uniform;	// estimated time to print the plan, and uniform layers
+
+	public AdaptiveLayers (Node root) {
+		this.root = root;
+		this.hmin = Prefs.current.SLICE_LAYER_MIN;
+		this.hmax = Math.max (hmin, Prefs.current.SLICE_LAYER_MAX);
+		this.cusp = Prefs.current.SLICE_CUSP;
+		this.rays = Math.max (2, Prefs.current.SLICE_ADAPT_RAYS);
+		this.bin = hmin / 2;
+		this.uniform_h = Prefs.current.SLICE_LAYER;
+		this.z0 = root.bounds.z0 + BBox.EPS;	// boxes are padded
+		this.z1 = root.bounds.z1 - BBox.EPS;
+	}
+
+	/* The pass over the model, which fills in slope, area and edge. The grid is done a row at
+	 * a time, so only two rows of which bins are inside are held. */
+	public void sample () {
+		BBox b = root.bounds;
+		int nb = Math.max (1, (int) Math.ceil ((z1 - z0) / bin));
+		slope = new double[nb];
+		area = new double[nb];
+		edge = new double[nb];
+		double cx = (b.x1 - b.x0) / rays, cy = (b.y1 - b.y0) / rays;
+		boolean[] prev = new boolean[rays*nb], cur = new boolean[rays*nb];	// inside, by column and bin
+		IList il = new IList (root.findIptsMax());
+		Ray r = new Ray();
+		Float3 p = new Float3(), g = new Float3();
+		double[] hz = new double[16];	// heights of the hits on the surface
+		Node tree = null;
+		for (int j=0; j<rays; j++) {
+			double y = b.y0 + (j + 0.5) * cy;
+			for (int i=0; i<rays; i++) {
+				double x = b.x0 + (i + 0.5) * cx;
+				if (i % BLOCK == 0) {	// the model cut down to the next few rays
+					BBox box = new BBox (b.x0 + i*cx, b.y0 + j*cy, b.z0, b.x0 + Math.min (rays, i + BLOCK) * cx, b.y0 + (j+1)*cy, b.z1);
+					Bundle bb = Bundle.of (box.pad (BBox.EPS));
+					tree = bb.misses (b) ? null : root.prune (bb);
+				}
+				int col = i*nb;
+				Arrays.fill (cur, col, col + nb, false);
+				int nh = 0;
+				if (tree == null) {
+					il.n = 0;
+				} else {
+					r.frame = null;
+					r.start.set (x, y, b.z0 - 1);
+					r.dir.set (0, 0, 1);
+					il.clear();
+					tree.allIntersections (il, r);
+				}
+				for (int k=0; k<il.n; k++) {
+					if (il.obj[k] == null) {
+						continue;
+					}
+					double z = r.getZ (il.t[k]);
+					if (Math.abs (tree.csg (x, y, z)) > 1e-6) {	// inside or outside something else
+						continue;
+					}
+					if (nh == hz.length) {
+						hz = Arrays.copyOf (hz, 2*nh);
+					}
+					hz[nh++] = z;
+					p.set (x, y, z);
+					tree.gradient (p, g);
+					double m = g.mag();
+					int bi = binOf (z);
+					if (m > 0 && bi >= 0 && bi < nb) {
+						slope[bi] = Math.max (slope[bi], Math.abs (g.z) / m);
+					}
+				}
+				il.n = 0;
+				Arrays.sort (hz, 0, nh);
+				for (int k=0; k+1<nh; k++) {	// the stretches between hits that are inside
+					if (tree.csg (x, y, (hz[k] + hz[k+1]) / 2) >= 0) {
+						continue;
+					}
+					for (int bi=Math.max (0, binOf (hz[k]) - 1); bi<nb && mid (bi) < hz[k+1]; bi++) {
+						if (mid (bi) > hz[k]) {
+							cur[col + bi] = true;
+						}
+					}
+				}
+				for (int bi=0; bi<nb; bi++) {
+					if (!cur[col + bi]) {
+						continue;
+					}
+					area[bi] += cx*cy;
+					if (i == 0 || i == rays-1) edge[bi] += cy;
+					if (j == 0 || j == rays-1) edge[bi] += cx;
+				}
+				for (int bi=0; i>0 && bi<nb; bi++) {
+					if (cur[col + bi] != cur[col - nb + bi]) edge[bi] += cy;
+				}
+				for (int bi=0; j>0 && bi<nb; bi++) {
+					if (cur[col + bi] != prev[col + bi]) edge[bi] += cx;
+				}
+			}
+			boolean[] t = prev;
+			prev = cur;
+			cur = t;
+		}
+		for (int bi=0; bi<nb; bi++) {
+			edge[bi] *= Math.PI / 4;
+		}
+	}
+
+	/* The heights the layers meet at, from z0 up to the top of the last, which reaches z1 or
+	 * past it; each layer is as thick as the steepest slope in it allows. Also estimates the
+	 * times. */
+	public double[] plan () {
+		if (slope == null) {
+			sample();
+		}
+		double[] zb = new double[64];
+		int n = 0;
+		zb[n++] = z0;
+		double z = z0;
+		while (z < z1 - 1e-9) {
+			double h = hmax;
+			for (int bi=Math.max (0, binOf (z)); bi<slope.length && z0 + bi*bin < z + h; bi++) {
+				if (slope[bi] * h > cusp) {
+					h = cusp / slope[bi];
+				}
+			}
+			z += Math.max (hmin, h);
+			if (n == zb.length) {
+				zb = Arrays.copyOf (zb, 2*n);
+			}
+			zb[n++] = z;
+		}
+		layers = n-1;
+		seconds = 0;
+		for (int k=0; k<layers; k++) {
+			seconds += layerTime ((zb[k] + zb[k+1]) / 2);
+		}
+		uniform = 0;
+		int nu = Math.max (1, (int) Math.ceil ((z1 - z0) / uniform_h - 1e-9));
+		for (int k=0; k<nu; k++) {
+			uniform += layerTime (z0 + (k + 0.5) * uniform_h);
+		}
+		return Arrays.copyOf (zb, n);
+	}
+
+	/* Estimated time for the walls and infill of a layer at z, from the bin it is in. */
+	public double layerTime (double z) {
+		int bi = Math.min (area.length-1, Math.max (0, binOf (z)));
+		Prefs p = Prefs.current;
+		double length = p.GCODE_PERIMETERS * edge[bi];
+		if (p.GCODE_INFILL > 0) {
+			length += area[bi] * p.GCODE_INFILL / p.GCODE_WIDTH;
+		}
+		return length / p.GCODE_FEED;
+	}
+
+	private int binOf (double z) {
+		return (int) Math.floor ((z - z0) / bin);
+	}
+
+	private double mid (int bi) {
+		return z0 + (bi + 0.5) * bin;
+	}
+
+	public String toString () {
+		long saved = Math.round (100 * (uniform - seconds) / Math.max (1e-9, uniform));
+		return layers + " layers of " + hmin + " to " + hmax + " mm, estimated " + Math.round (seconds / 60) + " minutes to print against " + Math.round (uniform / 60) + " for layers of " + uniform_h + " mm (" + ((saved >= 0) ? saved + "% saved)" : -saved + "% more, for the detail)");
+	}
+}
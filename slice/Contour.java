@@ -0,0 +1,69 @@
+package slice;
+public class Contour {
+
+	/* A closed loop in a layer, as its points in order (the last joins the first). Loops go
+	 * round counterclockwise with the solid on their left, so outlines have positive area
+	 * and the holes in them negative. */
+
+	public double[] x, y;
+	public int n;
+
+	public Contour (double[] x, double[] y, int n) {
+		this.x = x;
+		this.y = y;
+		this.n = n;
+	}
+
+	/* Signed area; positive for an outline, negative for a hole. */
+	public double area () {
+		double a = 0;
+		for (int i=0, j=n-1; i<n; j=i++) {
+			a += x[j]*y[i] - x[i]*y[j];
+		}
+		return a / 2;
+	}
+
+	public double length () {
+		double l = 0;
+		for (int i=0, j=n-1; i<n; j=i++) {
+			l += Math.hypot (x[i] - x[j], y[i] - y[j]);
+		}
+		return l;
+	}
+
+	/* Drops the points of the loop in x and y (n of them) that lie within tol of the line
+	 * through the last point kept and the one after it, moving the rest to the front; returns
+	 * how many are left. A dropped point is at most 2*tol from the outline that is left.
+	 * This is what keeps straight walls, which the grid cuts at every cell, from costing a
+	 * point per cell. */
+	public static int simplify (double[] x, double[] y, int n, double tol) {
+		if (n < 4 || tol <= 0) {
+			return n;
+		}
+		int k = 1;	// points kept; the first always is
+		int a = 0;	// the anchor, the last kept
+		double dx = x[1] - x[0], dy = y[1] - y[0];
+		for (int i=2; i<n; i++) {
+			double len = Math.hypot (dx, dy);
+			double d = (len > 0) ? Math.abs (dx * (y[i] - y[a]) - dy * (x[i] - x[a])) / len : Math.hypot (x[i] - x[a], y[i] - y[a]);
+			if (d > tol) {	// leaves the strip: keep the point before it, which starts the next
+				x[k] = x[i-1];
+				y[k] = y[i-1];
+				a = k++;
+				dx = x[i] - x[a];
+				dy = y[i] - y[a];
+			}
+		}
+		x[k] = x[n-1];
+		y[k] = y[n-1];
+		return k+1;
+	}
+
+	public boolean isHole () {
+		return area() < 0;
+	}
+
+	public String toString () {
+		return "Contour of " + n + " points, area " + area();
+	}
+}
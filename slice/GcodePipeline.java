@@ -0,0 +1,158 @@
+package slice;
+import common.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+public class GcodePipeline {
+
+	/* Slices a model and writes it out as G-code as it goes, without ever holding all its
+	 * layers. A layer passes through four stages, joined by bounded queues: slicing (with
+	 * Slicer's workers), walls and infill (Toolpaths), ordering (PathOrder), and writing
+	 * (GcodeWriter). The first two have nthreads workers each, as they're where the time
+	 * goes; ordering has one, and writing is done on the calling thread. Layers come out of
+	 * the workers in any order, and the writer keeps those that are early until their turn.
+	 * A layer may only be started when fewer than window are between being started and
+	 * written, so however tall the model, no more than window layers are held at once, and
+	 * the ones waiting for a slow layer to be written stop the workers rather than pile up. */
+
+	public Slicer slicer;
+	public int nthreads;
+	public int window;	// most layers in the pipeline at once
+	public int layers, exact;	// done so far
+	public long bytes;
+	public double seconds;	// the print's estimated time
+
+	public GcodePipeline (Node root) {
+		this.slicer = new Slicer (root);
+		this.nthreads = slicer.nthreads;
+		int w = Prefs.current.GCODE_IN_FLIGHT;
+		this.window = (w > 0) ? w : 2*nthreads;
+	}
+
+	public void write (File f) throws IOException {
+		FileChannel ch = FileChannel.open (f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			write (ch);
+		} finally {
+			ch.close();
+		}
+	}
+
+	public void write (WritableByteChannel ch) throws IOException {
+		final int n = slicer.layers();
+		final Semaphore room = new Semaphore (window);
+		final BlockingQueue<Layer> sliced = new ArrayBlockingQueue<Layer> (window);
+		final BlockingQueue<Layer> pathed = new ArrayBlockingQueue<Layer> (window);
+		final BlockingQueue<Layer> ordered = new ArrayBlockingQueue<Layer> (window);
+		final AtomicInteger next = new AtomicInteger (0);	// the next layer to slice
+		final AtomicInteger taken = new AtomicInteger (0);	// layers Toolpaths workers have taken on
+		final double x0 = slicer.root.bounds.x0, y0 = slicer.root.bounds.y0;
+		ExecutorService pool = Executors.newFixedThreadPool (2*nthreads + 1, new ThreadFactory () {
+			public Thread newThread (Runnable r) {
+				Thread t = new Thread (r, "Gcode");
+				t.setDaemon (true);
+				return t;
+			}
+		});
+		ArrayList<Future<Object>> jobs = new ArrayList<Future<Object>>();
+		try {
+			for (int i=0; i<nthreads; i++) {
+				jobs.add (pool.submit (new Callable<Object> () {
+					public Object call () throws InterruptedException {
+						SectionWorker e = slicer.sectionWorker();
+						SliceWorker w = slicer.sliceWorker();
+						while (true) {
+							room.acquire();
+							int k = next.getAndIncrement();
+							if (k >= n) {
+								room.release();
+								return null;
+							}
+							Layer l = slicer.layer (k);
+							slicer.slice (l, e, w);
+							sliced.put (l);
+						}
+					}
+				}));
+				jobs.add (pool.submit (new Callable<Object> () {
+					public Object call () throws InterruptedException {
+						Toolpaths t = new Toolpaths (slicer.root);
+						while (taken.getAndIncrement() < n) {
+							Layer l = sliced.take();
+							t.paths (l);
+							pathed.put (l);
+						}
+						return null;
+					}
+				}));
+			}
+			jobs.add (pool.submit (new Callable<Object> () {
+				public Object call () throws InterruptedException {
+					for (int i=0; i<n; i++) {
+						Layer l = pathed.take();
+						PathOrder.order (l, x0, y0);
+						ordered.put (l);
+					}
+					return null;
+				}
+			}));
+
+			GcodeWriter g = new GcodeWriter (ch);
+			Layer first = slicer.layer (0);
+			g.bed = first.z - first.h / 2;
+			BBox b = slicer.root.bounds;
+			g.dx = Prefs.current.GCODE_BED_X - (b.x0 + b.x1) / 2;	// the box's middle on the bed's
+			g.dy = Prefs.current.GCODE_BED_Y - (b.y0 + b.y1) / 2;
+			g.start();
+			Layer[] early = new Layer[window];	// by index, mod window
+			for (int k=0; k<n; ) {
+				Layer l = early[k % window];
+				if (l == null) {
+					l = take (ordered, jobs);
+					early[l.index % window] = l;
+					continue;
+				}
+				early[k % window] = null;
+				g.layer (l);
+				room.release();
+				layers++;
+				if (l.exact) exact++;
+				k++;
+			}
+			g.finish();
+			bytes = g.bytes;
+			seconds = g.seconds;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException ("G-code writing interrupted");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/* The next layer off q, checking meanwhile that none of the jobs has failed, as then it
+	 * might never come. */
+	private Layer take (BlockingQueue<Layer> q, ArrayList<Future<Object>> jobs) throws InterruptedException {
+		while (true) {
+			Layer l = q.poll (100, TimeUnit.MILLISECONDS);
+			if (l != null) {
+				return l;
+			}
+			for (Future<Object> f : jobs) {
+				if (f.isDone()) {
+					try {
+						f.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException ("G-code pipeline worker failed", e.getCause());
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package slice;
+import common.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+public class GcodeWriter {
+
+	/* Writes layers out as G-code, in millimetres and absolute positions, into a buffer that
+	 * goes to a channel whenever it fills, so however long the file only the buffer is held.
+	 * Numbers are written straight into the buffer, not through String.format, which would
+	 * cost more than everything else here. Extrusion is absolute (M82): E is the length of
+	 * filament that makes a line's volume, width by layer height by length. The filament is
+	 * pulled back before travels longer than a few widths, and pushed out again after.
+	 * The time the print will take is tallied as it goes, from lengths and speeds alone.
+	 * Positions are the model's moved by dx, dy, which the caller sets to put it on the bed;
+	 * where the nozzle is after homing isn't known, so the first travel isn't timed. */
+
+	public double width;
+	public double filament;	// diameter
+	public double feed, travel;	// mm/s
+	public double retract;
+	public double bed;	// z of the bottom of the model, which goes on the bed
+	public double dx, dy;	// added to the model's x and y
+	public int nozzleTemp, bedTemp;	// degrees C, 0 for leaving them alone
+	public double seconds;	// printing time so far
+	public long bytes;	// written so far
+
+	private WritableByteChannel out;
+	private ByteBuffer buf = ByteBuffer.allocate (1 << 16);
+	private double x = Double.NaN, y = Double.NaN, e;	// where the nozzle is in the model, and the extruder's position
+	private boolean retracted;
+
+	private static final long[] POW = {1, 10, 100, 1000, 10000, 100000};
+
+	public GcodeWriter (WritableByteChannel out) {
+		this.out = out;
+		this.width = Prefs.current.GCODE_WIDTH;
+		this.filament = Prefs.current.GCODE_FILAMENT;
+		this.feed = Prefs.current.GCODE_FEED;
+		this.travel = Prefs.current.GCODE_TRAVEL;
+		this.retract = Prefs.current.GCODE_RETRACT;
+		this.nozzleTemp = Prefs.current.GCODE_NOZZLE_TEMP;
+		this.bedTemp = Prefs.current.GCODE_BED_TEMP;
+	}
+
+	public void start () throws IOException {
+		put ("; made by BetterSCAD\n");
+		put ("G21 ; millimetres\n");
+		put ("G90 ; absolute positions\n");
+		put ("M82 ; absolute extrusion\n");
+		temp ("M140", bedTemp, "bed heating");
+		temp ("M104", nozzleTemp, "nozzle heating");
+		put ("G28 ; home\n");
+		temp ("M190", bedTemp, "wait for the bed");
+		temp ("M109", nozzleTemp, "wait for the nozzle");
+		put ("G92 E0\n");
+	}
+
+	/* Writes l's paths, in their order. */
+	public void layer (Layer l) throws IOException {
+		double perMM = width * l.h / (Math.PI * filament * filament / 4);	// filament per mm of line
+		put (";LAYER:");
+		put (Integer.toString (l.index));
+		put ("\nG0 Z");
+		num (l.z + l.h / 2 - bed, 3);	// the nozzle at the top of the layer
+		put (" F");
+		num (travel * 60, 0);
+		put ("\n");
+		for (Path p : l.paths) {
+			moveTo (p.x[0], p.y[0]);
+			put ("G1 F");
+			num (feed * 60, 0);
+			put ("\n");
+			int m = p.closed ? p.n+1 : p.n;
+			for (int i=1; i<m; i++) {
+				double px = p.x[i % p.n], py = p.y[i % p.n];
+				double len = Math.hypot (px - x, py - y);
+				e += len * perMM;
+				seconds += len / feed;
+				put ("G1 X");
+				num (px + dx, 3);
+				put (" Y");
+				num (py + dy, 3);
+				put (" E");
+				num (e, 5);
+				put ("\n");
+				x = px;
+				y = py;
+			}
+		}
+	}
+
+	/* Ends the file and sends whatever is left in the buffer. */
+	public void finish () throws IOException {
+		if (!retracted) {
+			put ("G1 E");
+			num (e - retract, 5);
+			put ("\n");
+		}
+		if (nozzleTemp > 0) {
+			put ("M104 S0 ; nozzle off\n");
+		}
+		if (bedTemp > 0) {
+			put ("M140 S0 ; bed off\n");
+		}
+		put ("M84 ; motors off\n");
+		flush();
+	}
+
+	private void moveTo (double tx, double ty) throws IOException {
+		double len = Math.hypot (tx - x, ty - y);	// NaN on the first travel
+		if (len == 0) {
+			return;
+		}
+		if (len > 4 * width && !retracted && retract > 0) {
+			put ("G1 E");
+			num (e - retract, 5);
+			put (" F");
+			num (travel * 60, 0);
+			put ("\n");
+			retracted = true;
+		}
+		put ("G0 X");
+		num (tx + dx, 3);
+		put (" Y");
+		num (ty + dy, 3);
+		put ("\n");
+		if (!Double.isNaN (len)) {
+			seconds += len / travel;
+		}
+		x = tx;
+		y = ty;
+		if (retracted) {
+			put ("G1 E");
+			num (e, 5);
+			put ("\n");
+			retracted = false;
+		}
+	}
+
+	/* Sets a temperature, unless t is 0. */
+	private void temp (String cmd, int t, String what) throws IOException {
+		if (t <= 0) {
+			return;
+		}
+		put (cmd);
+		put (" S");
+		put (Integer.toString (t));
+		put (" ; ");
+		put (what);
+		put ("\n");
+	}
+
+	/* v to so many decimal places */
+	private void num (double v, int places) throws IOException {
+		long r = Math.round (v * POW[places]);
+		if (r < 0) {
+			put ((byte) '-');
+			r = -r;
+		}
+		digits (r / POW[places]);
+		if (places > 0) {
+			put ((byte) '.');
+			long f = r % POW[places];
+			for (int i=places-1; i>=0; i--) {
+				put ((byte) ('0' + (f / POW[i]) % 10));
+			}
+		}
+	}
+
+	private void digits (long v) throws IOException {
+		if (v >= 10) {
+			digits (v / 10);
+		}
+		put ((byte) ('0' + v % 10));
+	}
+
+	private void put (String s) throws IOException {
+		for (int i=0; i<s.length(); i++) {
+			put ((byte) s.charAt (i));
+		}
+	}
+
+	private void put (byte b) throws IOException {
+		if (!buf.hasRemaining()) {
+			flush();
+		}
+		buf.put (b);
+	}
+
+	private void flush () throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			bytes += out.write (buf);
+		}
+		buf.clear();
+	}
+}
@@ -0,0 +1,164 @@
+package slice;
+import common.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+public class Infill {
+
+	/* Fills the inside of a layer with straight lines, spacing apart, across it at ANGLE to the
+	 * x axis, turned a right angle every other layer so that each layer's lines rest on the
+	 * crossing ones below. The lines are at whole multiples of spacing from the origin, so
+	 * layers line up whatever their outlines. The loops bounding the inside are made
+	 * SimplePolygons, and the lines are crossed with them as 2D rays by ScanWorkers, which
+	 * share the lines out in chunks, as the renderer's workers do tiles; see ScanWorker. With
+	 * root set, strokes are checked against it as well as paired even-odd. The workers and
+	 * their buffers are kept from layer to layer. They run on the pool the caller hands in,
+	 * which it shuts down, or on the calling thread when there is only one, as there is for
+	 * GcodePipeline: its Toolpaths workers already spread the layers over the threads, and
+	 * each fanning its lines out again would only queue them up behind the others. Strokes
+	 * come out in the order of their lines, every other line running backwards, so that in
+	 * order they zigzag. One per thread. */
+
+	public static final double ANGLE = 45;	// degrees
+	public static final int CHUNK = 16;	// lines a worker takes at a time
+
+	public double spacing;	// between lines; 0 for none
+	public Node root;	// what the layers are of, when strokes are checked against it; else null
+
+	/* The layer being filled, for the workers */
+	double cos, sin;	// of the lines' angle
+	double z;
+	double ustart;	// along the lines, before the loops start
+	int k0, k1;	// the lines, by multiple of spacing
+	int nloops;
+	SimplePolygon[] loops = new SimplePolygon[16];
+	double[] vlo = new double[16], vhi = new double[16];	// each loop's range across the lines
+	Node model;	// root cut down to the layer, or null
+	AtomicInteger next = new AtomicInteger();
+	int nchunks;
+	int[] chunkWorker = new int[16], chunkStart = new int[16], chunkEnd = new int[16];
+
+	private ScanWorker[] workers;
+	private ArrayList<ScanWorker> running = new ArrayList<ScanWorker>();
+	private ExecutorService pool;	// the workers', or null when there is one
+
+	public Infill (double spacing, Node root, int nthreads, ExecutorService pool) {
+		this.spacing = spacing;
+		this.root = root;
+		this.pool = pool;
+		workers = new ScanWorker[(pool != null) ? Math.max (1, nthreads) : 1];
+		for (int i=0; i<workers.length; i++) {
+			workers[i] = new ScanWorker (this, i);
+		}
+	}
+
+	public Infill (Node root) {
+		this ((Prefs.current.GCODE_INFILL > 0) ? Prefs.current.GCODE_WIDTH / Prefs.current.GCODE_INFILL : 0,
+			Prefs.current.GCODE_INFILL_CSG ? root : null, 1, null);
+	}
+
+	/* Adds to l the strokes that fill the inside of the loops in bound. */
+	public void fill (Layer l, ArrayList<Contour> bound) {
+		if (spacing <= 0 || bound.isEmpty()) {
+			return;
+		}
+		double a = Math.toRadians (ANGLE + 90 * (l.index % 2));
+		cos = Math.cos (a);
+		sin = Math.sin (a);
+		z = l.z;
+		model = null;
+		if (root != null) {
+			BBox rb = root.bounds;
+			Bundle b = Bundle.of (new BBox (rb.x0, rb.y0, z, rb.x1, rb.y1, z).pad (BBox.EPS));
+			model = b.misses (rb) ? null : root.prune (b);
+			if (model == null) {	// nothing of the model here
+				return;
+			}
+		}
+		nloops = 0;
+		int points = 0;
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		ustart = Double.POSITIVE_INFINITY;
+		for (Contour c : bound) {
+			if (nloops == loops.length) {
+				loops = Arrays.copyOf (loops, 2*nloops);
+				vlo = Arrays.copyOf (vlo, 2*nloops);
+				vhi = Arrays.copyOf (vhi, 2*nloops);
+			}
+			Float3[] pts = new Float3[c.n];
+			double vl = Double.POSITIVE_INFINITY, vh = Double.NEGATIVE_INFINITY;
+			for (int i=0; i<c.n; i++) {
+				pts[i] = new Float3 (c.x[i], c.y[i], 0);
+				double v = c.y[i]*cos - c.x[i]*sin;
+				vl = Math.min (vl, v);
+				vh = Math.max (vh, v);
+				ustart = Math.min (ustart, c.x[i]*cos + c.y[i]*sin);
+			}
+			loops[nloops] = new SimplePolygon (pts);
+			vlo[nloops] = vl;
+			vhi[nloops] = vh;
+			nloops++;
+			points += c.n;
+			lo = Math.min (lo, vl);
+			hi = Math.max (hi, vh);
+		}
+		ustart -= 1;
+		k0 = (int) Math.ceil (lo / spacing);
+		k1 = (int) Math.floor (hi / spacing);
+		if (k1 < k0) {
+			return;
+		}
+		nchunks = (k1 - k0) / CHUNK + 1;
+		if (chunkWorker.length < nchunks) {
+			chunkWorker = new int[2*nchunks];
+			chunkStart = new int[2*nchunks];
+			chunkEnd = new int[2*nchunks];
+		}
+		next.set (0);
+		running.clear();
+		for (int i=0; i<workers.length && i<nchunks; i++) {
+			ScanWorker w = workers[i];
+			w.ns = 0;
+			if (w.il.t.length < points) {	// every side of every loop could cross a line
+				w.il = new IList (2*points);
+			}
+			running.add (w);
+		}
+		runAll (running);
+		if (Thread.currentThread().isInterrupted()) {	// the chunks may not all be done
+			return;
+		}
+		for (int ch=0; ch<nchunks; ch++) {
+			ScanWorker w = workers[chunkWorker[ch]];
+			for (int i=chunkStart[ch]; i<chunkEnd[ch]; i++) {
+				int k = w.sk[i];
+				double u0 = w.su0[i], u1 = w.su1[i];
+				if (k % 2 != 0) {
+					u0 = w.su1[i];
+					u1 = w.su0[i];
+				}
+				double v = k * spacing;
+				double[] x = {u0*cos - v*sin, u1*cos - v*sin};
+				double[] y = {u0*sin + v*cos, u1*sin + v*cos};
+				l.paths.add (new Path (x, y, 2, false, Path.INFILL));
+			}
+		}
+	}
+
+	private void runAll (ArrayList<ScanWorker> workers) {
+		if (workers.size() == 1) {
+			workers.get(0).call();
+			return;
+		}
+		try {
+			for (Future<ScanWorker> f : pool.invokeAll (workers)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException ("Infill worker failed", e.getCause());
+		}
+	}
+}
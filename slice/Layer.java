@@ -0,0 +1,32 @@
+package slice;
+import java.util.ArrayList;
+public class Layer {
+
+	/* One layer of a sliced model: the contours of its section at z, the middle of the layer,
+	 * which stands for all of it from z - h/2 to z + h/2. */
+
+	public int index;	// from the bottom, starting at 0
+	public double z;
+	public double h;	// thickness
+	public ArrayList<Contour> contours = new ArrayList<Contour>();
+	public boolean exact;	// the contours are from SectionWorker, not sampled
+	public ArrayList<Path> paths = new ArrayList<Path>();	// to print it, from Toolpaths, in order once PathOrder has been
+
+	public Layer (int index, double z, double h) {
+		this.index = index;
+		this.z = z;
+		this.h = h;
+	}
+
+	public int points () {
+		int ct = 0;
+		for (Contour c : contours) {
+			ct += c.n;
+		}
+		return ct;
+	}
+
+	public String toString () {
+		return "Layer " + index + " at z = " + z + ": " + contours.size() + " contours, " + points() + " points";
+	}
+}
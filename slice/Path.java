@@ -0,0 +1,64 @@
+package slice;
+public class Path {
+
+	/* A line for the nozzle to follow in a layer, extruding as it goes: a loop (a perimeter,
+	 * which ends back where it started) or an open line (a stroke of infill). */
+
+	public static final int PERIMETER = 0;
+	public static final int INFILL = 1;
+
+	public double[] x, y;
+	public int n;
+	public boolean closed;
+	public int kind;	// PERIMETER or INFILL
+
+	public Path (double[] x, double[] y, int n, boolean closed, int kind) {
+		this.x = x;
+		this.y = y;
+		this.n = n;
+		this.closed = closed;
+		this.kind = kind;
+	}
+
+	/* Length extruded, including the closing side of a loop. */
+	public double length () {
+		double l = 0;
+		for (int i=1; i<n; i++) {
+			l += Math.hypot (x[i] - x[i-1], y[i] - y[i-1]);
+		}
+		if (closed && n > 1) {
+			l += Math.hypot (x[0] - x[n-1], y[0] - y[n-1]);
+		}
+		return l;
+	}
+
+	/* Turns the path round, so that it starts at what was its end. */
+	public void reverse () {
+		for (int i=0, j=n-1; i<j; i++, j--) {
+			double t = x[i];
+			x[i] = x[j];
+			x[j] = t;
+			t = y[i];
+			y[i] = y[j];
+			y[j] = t;
+		}
+	}
+
+	/* Makes a loop start at its point k, keeping its direction. */
+	public void rotate (int k) {
+		if (k <= 0 || k >= n) {
+			return;
+		}
+		double[] rx = new double[n], ry = new double[n];
+		for (int i=0; i<n; i++) {
+			rx[i] = x[(i + k) % n];
+			ry[i] = y[(i + k) % n];
+		}
+		x = rx;
+		y = ry;
+	}
+
+	public String toString () {
+		return (closed ? "Loop" : "Line") + " of " + n + " points, length " + length();
+	}
+}
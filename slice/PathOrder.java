@@ -0,0 +1,57 @@
+package slice;
+import java.util.ArrayList;
+public class PathOrder {
+
+	/* Puts the paths of a layer in the order to print them, to cut down on travel: from
+	 * wherever the nozzle is, the path with the nearest place to start next, a loop from the
+	 * point of it nearest and a line from whichever end is. That is greedy, and can be well
+	 * off the shortest tour, but it's quick and what slicers mostly do. Walls all go before
+	 * infill, so that the infill has them to be pressed against. */
+
+	/* Orders l's paths, starting from (x, y). */
+	public static void order (Layer l, double x, double y) {
+		ArrayList<Path> res = new ArrayList<Path>(l.paths.size());
+		for (int kind=Path.PERIMETER; kind<=Path.INFILL; kind++) {
+			ArrayList<Path> left = new ArrayList<Path>();
+			for (Path p : l.paths) {
+				if (p.kind == kind) {
+					left.add (p);
+				}
+			}
+			while (!left.isEmpty()) {
+				int best = -1, at = 0;	// the path, and the point to start from
+				double bd = Double.POSITIVE_INFINITY;
+				for (int i=0; i<left.size(); i++) {
+					Path p = left.get (i);
+					int m = p.closed ? p.n : 2;	// the points it may start at
+					for (int j=0; j<m; j++) {
+						int k = (p.closed || j == 0) ? j : p.n-1;
+						double dx = p.x[k] - x, dy = p.y[k] - y;
+						double d = dx*dx + dy*dy;
+						if (d < bd) {
+							bd = d;
+							best = i;
+							at = k;
+						}
+					}
+				}
+				Path p = left.get (best);
+				left.set (best, left.get (left.size()-1));
+				left.remove (left.size()-1);
+				if (p.closed) {
+					p.rotate (at);
+					x = p.x[0];
+					y = p.y[0];
+				} else {
+					if (at != 0) {
+						p.reverse();
+					}
+					x = p.x[p.n-1];
+					y = p.y[p.n-1];
+				}
+				res.add (p);
+			}
+		}
+		l.paths = res;
+	}
+}
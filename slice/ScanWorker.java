@@ -0,0 +1,91 @@
+package slice;
+import common.*;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+public class ScanWorker implements Callable<ScanWorker> {
+
+	/* Crosses lines of infill with the loops bounding it, for an Infill, taking chunks of
+	 * Infill.CHUNK lines off its counter until there are none left. A line is a ray along it
+	 * from before the loops start, and each loop it can meet (by the loop's range across the
+	 * lines) adds its crossings with the ray to the worker's own IList, by
+	 * allContourIntersections; so the hits are distances along the line, and nothing is
+	 * allocated per line. A line through a corner crosses just one of the sides there (see
+	 * SimplePolygon), so the hits, sorted into t (il's own stay in step with its obj and
+	 * facet), pair up even-odd into strokes; and with a model to check against, a stroke with
+	 * its middle or either end outside it is dropped; that is where the walls of two loops
+	 * overlapped, in parts too thin to need infill. The strokes are left in sk (their lines),
+	 * su0 and su1, and Infill reads them back chunk by chunk. */
+
+	public static final double MIN_STROKE = 1e-3;	// shorter strokes are left out
+
+	public Infill in;
+	public int id;	// the infill's index for this worker
+	public IList il = new IList (64);
+	public double[] t = new double[64];	// il's distances, sorted
+	public int[] sk = new int[64];
+	public double[] su0 = new double[64], su1 = new double[64];
+	public int ns;
+
+	private Ray ray = new Ray();
+
+	public ScanWorker (Infill in, int id) {
+		this.in = in;
+		this.id = id;
+	}
+
+	public ScanWorker call () {
+		int ch;
+		while ((ch = in.next.getAndIncrement()) < in.nchunks) {
+			in.chunkWorker[ch] = id;
+			in.chunkStart[ch] = ns;
+			int k0 = in.k0 + ch * Infill.CHUNK;
+			int k1 = Math.min (in.k1 + 1, k0 + Infill.CHUNK);
+			for (int k=k0; k<k1; k++) {
+				line (k);
+			}
+			in.chunkEnd[ch] = ns;
+		}
+		return this;
+	}
+
+	private void line (int k) {
+		double v = k * in.spacing;
+		double c = in.cos, s = in.sin, u0 = in.ustart;
+		ray.frame = null;
+		ray.start.set (u0*c - v*s, u0*s + v*c, in.z);
+		ray.dir.set (c, s, 0);
+		il.clear();
+		for (int b=0; b<in.nloops; b++) {
+			if (in.vlo[b] <= v && v <= in.vhi[b]) {
+				in.loops[b].allContourIntersections (il, ray);
+			}
+		}
+		if (t.length < il.n) {
+			t = new double[il.t.length];
+		}
+		System.arraycopy (il.t, 0, t, 0, il.n);
+		Arrays.sort (t, 0, il.n);
+		for (int h=0; h+1<il.n; h+=2) {
+			double a = t[h], b = t[h+1];
+			if (b - a < MIN_STROKE) {
+				continue;
+			}
+			if (in.model != null && !(inModel (u0 + a, v) && inModel (u0 + (a + b) / 2, v) && inModel (u0 + b, v))) {
+				continue;
+			}
+			if (ns == sk.length) {
+				sk = Arrays.copyOf (sk, 2*ns);
+				su0 = Arrays.copyOf (su0, 2*ns);
+				su1 = Arrays.copyOf (su1, 2*ns);
+			}
+			sk[ns] = k;
+			su0[ns] = u0 + a;
+			su1[ns] = u0 + b;
+			ns++;
+		}
+	}
+
+	private boolean inModel (double u, double v) {
+		return in.model.csg (u*in.cos - v*in.sin, u*in.sin + v*in.cos, in.z) < 0;
+	}
+}
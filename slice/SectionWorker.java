@@ -0,0 +1,628 @@
+package slice;
+import common.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+public class SectionWorker {
+
+	/* Finds the contours of a model's section at some z exactly, from the closed-form sections
+	 * of its primitives (see PlaneSection), where SliceWorker samples csg on a grid. The tree is
+	 * taken apart once: into its primitives, each with the product of the transforms above it,
+	 * and its CSG nodes, written out as a postfix program over them. For a layer, each primitive
+	 * that reaches z gives its curves (as polygons within tol of them), and the curves of
+	 * different primitives are cut where they cross. A piece between cuts is on the boundary of
+	 * the whole if the program comes out differently just to its left and just to its right;
+	 * it is turned round if the solid is on its right (as where it is subtracted). The pieces
+	 * kept join up at the cuts into the contours.
+	 * Trees with other primitives (Revolve, 2D unions under a transform under an extrusion)
+	 * can't be done this way at all, and usable is false. Nor can layers where the boundary
+	 * touches itself at a point, or where a slanted cut goes through the cap of a concave
+	 * extrusion, or where curves come out with nothing kept (the same line cut from two caps,
+	 * say, or a gap between parts where only what is subtracted reaches). slice then returns
+	 * false and leaves the layer to SliceWorker. A worker is used by one thread only. */
+
+	public Node root;
+	public double tol;
+	public double nudge;	// how far to the side of a piece keep looks; well under tol
+	public double snap;	// cuts closer than this are the same point; well under nudge
+	public boolean usable;
+
+	private ArrayList<Node> leaves = new ArrayList<Node>();
+	private ArrayList<Transform> mats = new ArrayList<Transform>();	// leaf coordinates to the model's
+	private double[] lz0, lz1;	// z extent of each leaf, in the model's coordinates
+	private int[] code;	// the program: a leaf's index, or -1 - CSG type ...
+	private int[] arity;	// ... taking this many values off the stack
+	private boolean[] stack;
+
+	/* Per layer: the curves, each with its leaf and box; each leaf's run of them and its box */
+	private ArrayList<Curve> loops = new ArrayList<Curve>();
+	private int[] loopLeaf = new int[16];
+	private double[] loopBox = new double[64];
+	private int[] first, last;
+	private double[] leafBox;
+	private ArrayList<Curve> curves = new ArrayList<Curve>();
+
+	/* Per layer: the cuts, as points, and where each lies along the curves, by curve index,
+	 * segment + fraction along it, and point */
+	private double[] px = new double[256], py = new double[256];
+	private int np;
+	private int[] cutLoop = new int[256], cutPt = new int[256];
+	private double[] cutAt = new double[256];
+	private int ncuts;
+	private boolean[] along = new boolean[64];	// by curve, whether it lies along another in places
+	private int[] root_of = new int[256];	// for merge, by point
+
+	/* Per layer: the grid that cut sorts segments into, and the segments by curve and index */
+	public static final int MAX_GRID = 1024;	// cells along a side
+	private double gx, gy, gcell;
+	private int gw, gh;
+	private int[] cellStart = new int[256], cellFill = new int[256], cellSeg = new int[1024];
+	private int[] segLoop = new int[1024], segIdx = new int[1024];
+
+	public SectionWorker (Node root, double tol) {
+		this.root = root;
+		this.tol = tol;
+		this.nudge = tol / 100;
+		this.snap = nudge / 100;
+		ArrayList<Integer> c = new ArrayList<Integer>();
+		ArrayList<Integer> a = new ArrayList<Integer>();
+		usable = walk (root, new Transform(), c, a);
+		code = new int[c.size()];
+		arity = new int[c.size()];
+		for (int i=0; i<code.length; i++) {
+			code[i] = c.get (i);
+			arity[i] = a.get (i);
+		}
+		stack = new boolean[code.length + 1];
+		int n = leaves.size();
+		lz0 = new double[n];
+		lz1 = new double[n];
+		for (int i=0; i<n; i++) {
+			BBox b = leaves.get (i).bounds.transform (mats.get (i));
+			lz0[i] = b.z0;
+			lz1[i] = b.z1;
+		}
+		first = new int[n];
+		last = new int[n];
+		leafBox = new double[4*n];
+	}
+
+	/* Adds the program for n, whose coordinates m maps to the model's, to code and arity.
+	 * A prism of a 2D CSG is the same CSG of prisms, so extrusions are pushed down into those. */
+	private boolean walk (Node n, Transform m, ArrayList<Integer> c, ArrayList<Integer> a) {
+		if (n instanceof ProfileNode) {
+			return walk (n.left, m, c, a);
+		}
+		if (n instanceof CSG || (n instanceof Extrude && n.left instanceof CSG)) {
+			CSG csg = (CSG) ((n instanceof CSG) ? n : n.left);
+			for (Node ch : csg.children) {
+				Node k = ch;
+				if (n instanceof Extrude) {
+					k = n.copy();
+					k.left = ch;
+					k.bounds = k.findBounds();
+				}
+				if (!walk (k, m, c, a)) {
+					return false;
+				}
+			}
+			c.add (-1 - csg.type);
+			a.add (csg.children.length);
+			return true;
+		}
+		if (exact (n)) {
+			c.add (leaves.size());
+			a.add (0);
+			leaves.add (n);
+			mats.add (m);
+			return true;
+		}
+		if (n instanceof TransformNode) {
+			return walk (n.left, m.append (((TransformNode) n).xform), c, a);
+		}
+		return false;
+	}
+
+	/* Whether n gives its section by itself. */
+	private static boolean exact (Node n) {
+		if (n instanceof Extrude) {
+			return ((Extrude) n).outline() != null;
+		}
+		if (n instanceof TransformNode) {
+			return exact (n.left);
+		}
+		return n instanceof PlaneSection;
+	}
+
+	/* Fills in the contours of l, at its z, if that can be done exactly; otherwise returns
+	 * false and leaves l as it was. */
+	public boolean slice (Layer l) {
+		if (!usable) {
+			return false;
+		}
+		double z = l.z;
+		loops.clear();
+		for (int k=0; k<leaves.size(); k++) {
+			first[k] = loops.size();
+			double x0 = Double.POSITIVE_INFINITY, y0 = x0, x1 = Double.NEGATIVE_INFINITY, y1 = x1;
+			if (z >= lz0[k] && z <= lz1[k]) {
+				curves.clear();
+				if (!((PlaneSection) leaves.get (k)).section (mats.get (k), z, tol, curves)) {
+					return false;
+				}
+				for (Curve c : curves) {
+					int i = addLoop (k, c.flatten (tol));
+					x0 = Math.min (x0, loopBox[4*i]);
+					y0 = Math.min (y0, loopBox[4*i+1]);
+					x1 = Math.max (x1, loopBox[4*i+2]);
+					y1 = Math.max (y1, loopBox[4*i+3]);
+				}
+			}
+			last[k] = loops.size();
+			leafBox[4*k] = x0;
+			leafBox[4*k+1] = y0;
+			leafBox[4*k+2] = x1;
+			leafBox[4*k+3] = y1;
+		}
+		cut();
+		merge();
+		ArrayList<Contour> res = join();
+		if (res == null || (res.isEmpty() && !loops.isEmpty())) {	// curves, yet no section: best checked on the grid
+			return false;
+		}
+		l.contours.clear();
+		l.contours.addAll (res);
+		l.exact = true;
+		return true;
+	}
+
+	private int addLoop (int leaf, Curve c) {
+		int i = loops.size();
+		loops.add (c);
+		if (i == loopLeaf.length) {
+			loopLeaf = Arrays.copyOf (loopLeaf, 2*i);
+			loopBox = Arrays.copyOf (loopBox, 8*i);
+		}
+		loopLeaf[i] = leaf;
+		double x0 = Double.POSITIVE_INFINITY, y0 = x0, x1 = Double.NEGATIVE_INFINITY, y1 = x1;
+		for (int k=0; k<c.n; k++) {
+			x0 = Math.min (x0, c.x[k]);
+			y0 = Math.min (y0, c.y[k]);
+			x1 = Math.max (x1, c.x[k]);
+			y1 = Math.max (y1, c.y[k]);
+		}
+		loopBox[4*i] = x0;
+		loopBox[4*i+1] = y0;
+		loopBox[4*i+2] = x1;
+		loopBox[4*i+3] = y1;
+		return i;
+	}
+
+	/* Finds where the curves of different leaves cross. Each segment includes its start and,
+	 * give or take snap, its end, so a crossing at a corner may be found twice, and merge
+	 * makes it one; what matters is that it isn't missed. The segments are put in the cells of a grid they cross, about
+	 * one to a cell, and only pairs in the same cell are tried, in the cell where the corner
+	 * of the overlap of their boxes is, so each pair once. Trying all pairs of segments of
+	 * curves whose boxes meet would do, but a big circle in a layer meets all the others. */
+	private void cut () {
+		np = 0;
+		ncuts = 0;
+		int nl = loops.size();
+		if (along.length < nl) {
+			along = new boolean[2*nl];
+		}
+		Arrays.fill (along, 0, nl, false);
+		int ns = 0;
+		double x0 = Double.POSITIVE_INFINITY, y0 = x0, x1 = Double.NEGATIVE_INFINITY, y1 = x1;
+		for (int a=0; a<nl; a++) {
+			ns += loops.get (a).n;
+			x0 = Math.min (x0, loopBox[4*a]);
+			y0 = Math.min (y0, loopBox[4*a+1]);
+			x1 = Math.max (x1, loopBox[4*a+2]);
+			y1 = Math.max (y1, loopBox[4*a+3]);
+		}
+		if (nl < 2) {
+			return;
+		}
+		if (segLoop.length < ns) {
+			segLoop = new int[2*ns];
+			segIdx = new int[2*ns];
+		}
+		ns = 0;
+		for (int a=0; a<nl; a++) {
+			for (int i=0; i<loops.get (a).n; i++) {
+				segLoop[ns] = a;
+				segIdx[ns] = i;
+				ns++;
+			}
+		}
+		gx = x0;
+		gy = y0;
+		gcell = Math.max (Math.sqrt ((x1 - x0) * (y1 - y0) / ns), 1e-6 * Math.max (x1 - x0, y1 - y0));
+		gw = Math.min ((int) ((x1 - x0) / gcell) + 1, MAX_GRID);
+		gh = Math.min ((int) ((y1 - y0) / gcell) + 1, MAX_GRID);
+		if (cellStart.length < gw*gh + 1) {
+			cellStart = new int[2 * (gw*gh + 1)];
+		}
+		Arrays.fill (cellStart, 0, gw*gh + 1, 0);
+		for (int pass=0; pass<2; pass++) {	// count, then fill
+			for (int k=0; k<ns; k++) {
+				Curve c = loops.get (segLoop[k]);
+				int i = segIdx[k], j = (i+1) % c.n;
+				int cx0 = cellX (Math.min (c.x[i], c.x[j])), cx1 = cellX (Math.max (c.x[i], c.x[j]));
+				int cy0 = cellY (Math.min (c.y[i], c.y[j])), cy1 = cellY (Math.max (c.y[i], c.y[j]));
+				for (int cy=cy0; cy<=cy1; cy++) {
+					for (int cx=cx0; cx<=cx1; cx++) {
+						if (pass == 0) {
+							cellStart[cy*gw + cx + 1]++;
+						} else {
+							cellSeg[cellFill[cy*gw + cx]++] = k;
+						}
+					}
+				}
+			}
+			if (pass == 0) {
+				for (int c=0; c<gw*gh; c++) {
+					cellStart[c+1] += cellStart[c];
+				}
+				if (cellSeg.length < cellStart[gw*gh]) {
+					cellSeg = new int[2 * cellStart[gw*gh]];
+				}
+				if (cellFill.length < gw*gh) {
+					cellFill = new int[2*gw*gh];
+				}
+				System.arraycopy (cellStart, 0, cellFill, 0, gw*gh);
+			}
+		}
+		for (int c=0; c<gw*gh; c++) {
+			for (int p=cellStart[c]; p<cellStart[c+1]; p++) {
+				for (int q=p+1; q<cellStart[c+1]; q++) {
+					int sp = cellSeg[p], sq = cellSeg[q];
+					if (segLoop[sp] > segLoop[sq]) {
+						int t = sp;
+						sp = sq;
+						sq = t;
+					}
+					int a = segLoop[sp], b = segLoop[sq];
+					if (loopLeaf[a] == loopLeaf[b]) {
+						continue;
+					}
+					Curve ca = loops.get (a), cb = loops.get (b);
+					int i = segIdx[sp], i1 = (i+1) % ca.n;
+					int j = segIdx[sq], j1 = (j+1) % cb.n;
+					double lox = Math.max (Math.min (ca.x[i], ca.x[i1]), Math.min (cb.x[j], cb.x[j1]));
+					double loy = Math.max (Math.min (ca.y[i], ca.y[i1]), Math.min (cb.y[j], cb.y[j1]));
+					if (lox > Math.min (Math.max (ca.x[i], ca.x[i1]), Math.max (cb.x[j], cb.x[j1]))
+							|| loy > Math.min (Math.max (ca.y[i], ca.y[i1]), Math.max (cb.y[j], cb.y[j1]))
+							|| cellY (loy)*gw + cellX (lox) != c) {
+						continue;
+					}
+					cross (a, i, ca.x[i], ca.y[i], ca.x[i1] - ca.x[i], ca.y[i1] - ca.y[i],
+							b, j, cb.x[j], cb.y[j], cb.x[j1] - cb.x[j], cb.y[j1] - cb.y[j]);
+				}
+			}
+		}
+	}
+
+	private int cellX (double x) {
+		return Math.max (0, Math.min (gw - 1, (int) ((x - gx) / gcell)));
+	}
+
+	private int cellY (double y) {
+		return Math.max (0, Math.min (gh - 1, (int) ((y - gy) / gcell)));
+	}
+
+	/* Records where segment i of curve a, from (ax, ay) by (rx, ry), crosses segment j of b.
+	 * Where they lie along each other, the start of either that is on the other counts. A
+	 * crossing within snap of the end of either segment counts too, as rounding can put the
+	 * end of one curve's segment just short of another it ends on (two caps cut along the
+	 * same line, say); if that also finds it on the next segment, merge makes the two one. */
+	private void cross (int a, int i, double ax, double ay, double rx, double ry, int b, int j, double bx, double by, double sx, double sy) {
+		double qx = bx - ax, qy = by - ay;
+		double denom = rx*sy - ry*sx;
+		double rr = rx*rx + ry*ry, ss = sx*sx + sy*sy;
+		if (Math.abs (denom) <= 1e-12 * Math.sqrt (rr * ss)) {
+			if (Math.abs (qx*ry - qy*rx) > 1e-9 * Math.sqrt (rr)) {	// parallel, apart
+				return;
+			}
+			along[a] = along[b] = true;
+			double u = -(qx*sx + qy*sy) / ss;	// a's start along b
+			double t = (qx*rx + qy*ry) / rr;	// b's start along a
+			if (u >= 0 && u < 1) {
+				addCut (a, i, b, j + u, ax, ay);
+			}
+			if (t > 0 && t < 1) {	// if both starts are the same point, it is in already
+				addCut (a, i + t, b, j, bx, by);
+			}
+			return;
+		}
+		double t = (qx*sy - qy*sx) / denom;
+		double u = (qx*ry - qy*rx) / denom;
+		double et = snap / Math.sqrt (rr), eu = snap / Math.sqrt (ss);
+		if (t >= -et && t < 1 + et && u >= -eu && u < 1 + eu) {
+			addCut (a, i + t, b, j + u, ax + t*rx, ay + t*ry);
+		}
+	}
+
+	/* A cut at (x, y), which is at ata along curve a and atb along b. */
+	private void addCut (int a, double ata, int b, double atb, double x, double y) {
+		if (np == px.length) {
+			px = Arrays.copyOf (px, 2*np);
+			py = Arrays.copyOf (py, 2*np);
+		}
+		px[np] = x;
+		py[np] = y;
+		addCut (a, ata, np);
+		addCut (b, atb, np);
+		np++;
+	}
+
+	private void addCut (int loop, double at, int pt) {
+		if (ncuts == cutLoop.length) {
+			cutLoop = Arrays.copyOf (cutLoop, 2*ncuts);
+			cutPt = Arrays.copyOf (cutPt, 2*ncuts);
+			cutAt = Arrays.copyOf (cutAt, 2*ncuts);
+		}
+		cutLoop[ncuts] = loop;
+		cutAt[ncuts] = at;
+		cutPt[ncuts] = pt;
+		ncuts++;
+	}
+
+	/* Makes cuts closer than snap to each other one point. Where three curves cross at a point
+	 * (two of them the same, as often as not), the crossings come out a rounding error apart,
+	 * and the pieces on either side of them have to meet. */
+	private void merge () {
+		if (root_of.length < np) {
+			root_of = new int[2*np];
+		}
+		Integer[] byx = new Integer[np];
+		for (int i=0; i<np; i++) {
+			byx[i] = i;
+			root_of[i] = i;
+		}
+		Arrays.sort (byx, new Comparator<Integer> () {
+			public int compare (Integer p, Integer q) {
+				return Double.compare (px[p], px[q]);
+			}
+		});
+		for (int i=0; i<np; i++) {
+			int a = byx[i];
+			for (int k=i+1; k<np && px[byx[k]] - px[a] <= snap; k++) {
+				int b = byx[k];
+				if (Math.abs (py[b] - py[a]) <= snap) {
+					root_of[find (b)] = find (a);
+				}
+			}
+		}
+		for (int k=0; k<ncuts; k++) {
+			cutPt[k] = find (cutPt[k]);
+		}
+	}
+
+	private int find (int p) {
+		while (root_of[p] != p) {
+			root_of[p] = root_of[root_of[p]];
+			p = root_of[p];
+		}
+		return p;
+	}
+
+	/* Cuts the curves into pieces, keeps those on the boundary, and joins them up; null if
+	 * they don't join up into loops, one way only at each cut. Curves cross each other an even
+	 * number of times, so a curve with an odd number of cuts (but for one that lies along
+	 * another in places, where the cuts are shared out unevenly between them), or a piece that
+	 * goes all the way round from a cut back to it, means a crossing was missed or the curves
+	 * only touch, and is null too. */
+	private ArrayList<Contour> join () {
+		Integer[] order = new Integer[ncuts];
+		for (int i=0; i<ncuts; i++) {
+			order[i] = i;
+		}
+		Arrays.sort (order, new Comparator<Integer> () {
+			public int compare (Integer p, Integer q) {
+				if (cutLoop[p] != cutLoop[q]) {
+					return cutLoop[p] - cutLoop[q];
+				}
+				return Double.compare (cutAt[p], cutAt[q]);
+			}
+		});
+		ArrayList<Contour> res = new ArrayList<Contour>();
+		ArrayList<double[]> pieces = new ArrayList<double[]>();	// x's then y's, from start to end
+		ArrayList<int[]> ends = new ArrayList<int[]>();	// start and end points
+		HashMap<Integer, Integer> from = new HashMap<Integer, Integer>();	// the piece starting at each point
+		int s = 0;
+		for (int loop=0; loop<loops.size(); loop++) {
+			int e = s;
+			while (e < ncuts && cutLoop[order[e]] == loop) {
+				e++;
+			}
+			Curve c = loops.get (loop);
+			if ((e - s) % 2 != 0 && !along[loop]) {	// a crossing missed, or curves that only touch
+				return null;
+			}
+			if (e == s) {	// not cut: all of it or nothing
+				int dir = keep (c.x, c.y, c.n);
+				if (dir != 0) {
+					res.add (contour (c.x, c.y, c.n, dir));
+				}
+			}
+			for (int k=s; k<e; k++) {
+				int p = order[k];
+				int q = order[(k+1 < e) ? k+1 : s];
+				double at0 = cutAt[p], at1 = cutAt[q];
+				if (k+1 == e) {	// round past the start
+					at1 += c.n;
+				}
+				int v0 = (int) Math.floor (at0) + 1, v1 = Math.max ((int) Math.ceil (at1) - 1, v0 - 1);	// the corners in between
+				if (cutPt[p] == cutPt[q]) {
+					if (!away (c, v0, v1, cutPt[p])) {	// nothing between cuts that were merged
+						continue;
+					}
+					return null;	// all the way round
+				}
+				int n = v1 - v0 + 3;
+				double[] x = new double[n], y = new double[n];
+				x[0] = px[cutPt[p]];
+				y[0] = py[cutPt[p]];
+				for (int v=v0; v<=v1; v++) {
+					x[v - v0 + 1] = c.x[v % c.n];
+					y[v - v0 + 1] = c.y[v % c.n];
+				}
+				x[n-1] = px[cutPt[q]];
+				y[n-1] = py[cutPt[q]];
+				int dir = keep (x, y, n);
+				if (dir == 0) {
+					continue;
+				}
+				int[] se = (dir > 0) ? new int[] {cutPt[p], cutPt[q]} : new int[] {cutPt[q], cutPt[p]};
+				double[] xy = new double[2*n];
+				for (int i=0; i<n; i++) {
+					int src = (dir > 0) ? i : n-1-i;
+					xy[i] = x[src];
+					xy[n+i] = y[src];
+				}
+				Integer other = from.get (se[0]);
+				if (other != null) {	// the same piece of another curve, or a point where curves touch
+					if (ends.get (other)[1] == se[1]) {
+						continue;
+					}
+					return null;
+				}
+				from.put (se[0], pieces.size());
+				pieces.add (xy);
+				ends.add (se);
+			}
+			s = e;
+		}
+		boolean[] used = new boolean[pieces.size()];
+		for (int p0=0; p0<pieces.size(); p0++) {
+			if (used[p0]) {
+				continue;
+			}
+			double[] cx = new double[64], cy = new double[64];
+			int n = 0;
+			int p = p0;
+			do {
+				if (used[p]) {
+					return null;
+				}
+				used[p] = true;
+				double[] xy = pieces.get (p);
+				int len = xy.length / 2;
+				if (n + len > cx.length) {
+					cx = Arrays.copyOf (cx, 2 * (n + len));
+					cy = Arrays.copyOf (cy, 2 * (n + len));
+				}
+				for (int i=0; i<len-1; i++) {	// the last is the next one's first
+					cx[n] = xy[i];
+					cy[n] = xy[len+i];
+					n++;
+				}
+				Integer next = from.get (ends.get (p)[1]);
+				if (next == null) {
+					return null;
+				}
+				p = next;
+			} while (p != p0);
+			if (n >= 3) {
+				res.add (new Contour (Arrays.copyOf (cx, n), Arrays.copyOf (cy, n), n));
+			}
+		}
+		return res;
+	}
+
+	/* Whether any of corners v0 to v1 of c is further than snap from point pt. */
+	private boolean away (Curve c, int v0, int v1, int pt) {
+		for (int v=v0; v<=v1; v++) {
+			if (Math.abs (c.x[v % c.n] - px[pt]) > snap || Math.abs (c.y[v % c.n] - py[pt]) > snap) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Whether the piece (x, y) of n points is on the boundary: 1 if so, with the solid on its
+	 * left, -1 if so the other way round, and 0 if not. It is tried a little way to either
+	 * side of the middle of its longest segment, which is furthest from the ends, where other
+	 * curves are. Taking the sides, not the piece's own leaf as in and out, leaves out faces
+	 * that touch with solid on both sides, and gives curves that lie along each other the same
+	 * answer, so that join can keep one of them. */
+	private int keep (double[] x, double[] y, int n) {
+		int best = 0;
+		double len = -1;
+		for (int i=0; i<n-1; i++) {
+			double d = Math.hypot (x[i+1] - x[i], y[i+1] - y[i]);
+			if (d > len) {
+				len = d;
+				best = i;
+			}
+		}
+		int j = (best + 1) % n;
+		double dx = x[j] - x[best], dy = y[j] - y[best];
+		double d = Math.hypot (dx, dy);
+		if (d == 0) {
+			return 0;
+		}
+		double ox = -dy / d * nudge, oy = dx / d * nudge;	// to the left
+		double mx = (x[best] + x[j]) / 2, my = (y[best] + y[j]) / 2;
+		boolean left = inside (mx + ox, my + oy);
+		boolean right = inside (mx - ox, my - oy);
+		return (left == right) ? 0 : (left ? 1 : -1);
+	}
+
+	private static Contour contour (double[] x, double[] y, int n, int dir) {
+		double[] cx = new double[n], cy = new double[n];
+		for (int i=0; i<n; i++) {
+			int src = (dir > 0) ? i : n-1-i;
+			cx[i] = x[src];
+			cy[i] = y[src];
+		}
+		return new Contour (cx, cy, n);
+	}
+
+	/* Runs the program at (x, y). */
+	private boolean inside (double x, double y) {
+		int sp = 0;
+		for (int i=0; i<code.length; i++) {
+			int c = code[i];
+			if (c >= 0) {
+				stack[sp++] = inLeaf (c, x, y);
+				continue;
+			}
+			int base = sp - arity[i];
+			boolean r = stack[base];
+			for (int k=base+1; k<sp; k++) {
+				switch (-1 - c) {
+					case CSG.UNION:
+						r |= stack[k];	break;
+					case CSG.INTERSECTION:
+						r &= stack[k];	break;
+					case CSG.DIFFERENCE:
+						r &= !stack[k];
+				}
+			}
+			sp = base;
+			stack[sp++] = r;
+		}
+		return stack[0];
+	}
+
+	/* Even-odd over the leaf's curves. */
+	private boolean inLeaf (int k, double x, double y) {
+		if (x < leafBox[4*k] || y < leafBox[4*k+1] || x > leafBox[4*k+2] || y > leafBox[4*k+3]) {
+			return false;
+		}
+		boolean in = false;
+		for (int i=first[k]; i<last[k]; i++) {
+			Curve c = loops.get (i);
+			for (int a=c.n-1, b=0; b<c.n; a=b++) {
+				if ((c.y[a] > y) != (c.y[b] > y) && x < c.x[a] + (y - c.y[a]) * (c.x[b] - c.x[a]) / (c.y[b] - c.y[a])) {
+					in = !in;
+				}
+			}
+		}
+		return in;
+	}
+}
@@ -0,0 +1,270 @@
+package slice;
+import common.*;
+import java.util.Arrays;
+public class SliceWorker {
+
+	/* Finds the contours of a model's section at some z, by marching squares over a grid of
+	 * square cells that covers the model's box (with a cell to spare all round, so that every
+	 * contour closes). The grid is taken in blocks of Prefs SLICE_BLOCK x SLICE_BLOCK cells:
+	 * each block is pruned to (see Node.prune), and skipped if csgInterval says it is all
+	 * inside or all outside, so only the cells near the surface are looked at, against only
+	 * the primitives near them.
+	 * Where a cell edge changes sign, the point of the contour on it is found by tracing the
+	 * edge as a ray in the plane, so that it lies on the surface exactly, as the renderer's
+	 * hits do (extrusions find these with their 2D shapes' allContourIntersections). Nodes
+	 * without ray intersections (Revolve) fall back to bisection of csg along the edge.
+	 * Corners and edges are worked out once per layer, whichever block gets to them first,
+	 * so neighbouring cells always agree. A worker keeps its arrays from layer to layer and
+	 * is used by one thread only. */
+
+	public static final int BISECT_STEPS = 30;
+
+	public Node root;
+	public double cell;	// edge length of the cells
+	public int block;	// ... and of the blocks, in cells
+	public double tol;	// points along the contours may be dropped if that moves them less than this
+	public int tests, traced;	// diagnostics: cells looked at and edges traced since made
+
+	private double gx, gy;	// corner (0, 0) of the grid
+	private int nx, ny;	// corners along x and y
+	private double z;
+	private IList il;
+	private Ray ray = new Ray();
+
+	/* Per layer; an entry is only valid if its stamp is that of the layer */
+	private int stamp = 0;
+	private double[] val;	// csg at the corners
+	private int[] vstamp;
+	private int[] hpt, hstamp;	// point on the edge from corner (i, j) to (i+1, j), by j*nx + i
+	private int[] vpt, vstamp2;	// ... from (i, j) to (i, j+1)
+
+	/* The layer's points, and for each the one after it on its contour */
+	private double[] px = new double[1024], py = new double[1024];
+	private int[] next = new int[1024];
+	private int np;
+	private boolean[] in = new boolean[4];	// scratch for cell
+	private int[] pt = new int[4];
+
+	public SliceWorker (Node root, double cell, int block, double tol) {
+		this.root = root;
+		this.cell = cell;
+		this.block = Math.max (1, block);
+		this.tol = tol;
+		il = new IList (root.findIptsMax());
+		BBox b = root.bounds;
+		gx = b.x0 - cell;
+		gy = b.y0 - cell;
+		nx = (int) Math.ceil ((b.x1 - b.x0) / cell) + 3;
+		ny = (int) Math.ceil ((b.y1 - b.y0) / cell) + 3;
+	}
+
+	/* Fills in the contours of l, at its z. The arrays over the grid are only made the first
+	 * time, as a worker that SectionWorker leaves nothing to never needs them. */
+	public void slice (Layer l) {
+		if (val == null) {
+			int n = nx*ny;
+			val = new double[n];
+			vstamp = new int[n];
+			hpt = new int[n];
+			hstamp = new int[n];
+			vpt = new int[n];
+			vstamp2 = new int[n];
+		}
+		z = l.z;
+		stamp++;
+		np = 0;
+		BBox rb = root.bounds;
+		if (z > rb.z0 && z < rb.z1) {
+			for (int by=0; by<ny-1; by+=block) {
+				for (int bx=0; bx<nx-1; bx+=block) {
+					march (bx, by, Math.min (bx + block, nx-1), Math.min (by + block, ny-1));
+				}
+			}
+		}
+		link (l);
+	}
+
+	/* Marches the cells with lower left corners from (i0, j0) up to (i1, j1), if anything of
+	 * the surface may pass through them. */
+	private void march (int i0, int j0, int i1, int j1) {
+		BBox box = new BBox (gx + i0*cell, gy + j0*cell, z, gx + i1*cell, gy + j1*cell, z);
+		if (!box.intersects (root.bounds)) {
+			return;
+		}
+		Bundle b = Bundle.of (box.pad (BBox.EPS));
+		Node tree = b.misses (root.bounds) ? null : root.prune (b);
+		if (tree == null) {
+			return;
+		}
+		Interval iv = tree.csgInterval (box);
+		if (iv.lo > BBox.EPS || iv.hi < -BBox.EPS) {	// all outside or all inside
+			return;
+		}
+		for (int j=j0; j<j1; j++) {
+			for (int i=i0; i<i1; i++) {
+				tests++;
+				cell (i, j, tree);
+			}
+		}
+	}
+
+	/* Adds the pieces of contour in cell (i, j), if any. Going round the cell counterclockwise,
+	 * corners 0 to 3 from the lower left, side k runs from corner k to corner k+1. A contour
+	 * piece leaves the solid on its left, so it starts on a side that goes from inside to
+	 * outside and ends on one that goes from outside to inside. With two of each (a saddle),
+	 * the value at the cell's centre decides: if it is inside, the pieces cut off the
+	 * outside corners, and each start pairs with the next end round the cell; otherwise with
+	 * the one before. */
+	private void cell (int i, int j, Node tree) {
+		in[0] = corner (i, j, tree) < 0;
+		in[1] = corner (i+1, j, tree) < 0;
+		in[2] = corner (i+1, j+1, tree) < 0;
+		in[3] = corner (i, j+1, tree) < 0;
+		if (in[0] == in[1] && in[1] == in[2] && in[2] == in[3]) {
+			return;
+		}
+		int ct = 0;	// sides with a point; pt has it, or -1
+		for (int k=0; k<4; k++) {
+			pt[k] = -1;
+			if (in[k] != in[(k+1) % 4]) {
+				pt[k] = sidePoint (i, j, k, tree);
+				ct++;
+			}
+		}
+		boolean joined = false;	// saddle with its centre inside
+		if (ct == 4) {
+			joined = tree.csg (gx + (i + 0.5)*cell, gy + (j + 0.5)*cell, z) < 0;
+		}
+		for (int k=0; k<4; k++) {
+			if (pt[k] == -1 || !in[k]) {	// not a start
+				continue;
+			}
+			int e = k;
+			do {
+				e = joined ? (e + 1) % 4 : (e + 3) % 4;
+			} while (pt[e] == -1);
+			next[pt[k]] = pt[e];
+		}
+	}
+
+	private double corner (int i, int j, Node tree) {
+		int k = j*nx + i;
+		if (vstamp[k] != stamp) {
+			val[k] = tree.csg (gx + i*cell, gy + j*cell, z);
+			vstamp[k] = stamp;
+		}
+		return val[k];
+	}
+
+	/* The point on side k of cell (i, j), found the first time it is asked for. */
+	private int sidePoint (int i, int j, int k, Node tree) {
+		boolean horiz = (k == 0 || k == 2);
+		int ci = (k == 1) ? i+1 : i;
+		int cj = (k == 2) ? j+1 : j;
+		int idx = cj*nx + ci;
+		if (horiz) {
+			if (hstamp[idx] == stamp) return hpt[idx];
+		} else {
+			if (vstamp2[idx] == stamp) return vpt[idx];
+		}
+		double ax = gx + ci*cell, ay = gy + cj*cell;
+		double dx = horiz ? cell : 0, dy = horiz ? 0 : cell;
+		double va = corner (ci, cj, tree);
+		double vb = horiz ? corner (ci+1, cj, tree) : corner (ci, cj+1, tree);
+		double t = crossing (ax, ay, dx, dy, va, vb, tree);
+		int p = addPoint (ax + t*dx, ay + t*dy);
+		if (horiz) {
+			hpt[idx] = p;
+			hstamp[idx] = stamp;
+		} else {
+			vpt[idx] = p;
+			vstamp2[idx] = stamp;
+		}
+		return p;
+	}
+
+	/* Where along the edge from (ax, ay) by (dx, dy) the surface is, as a fraction of it; the
+	 * ends have values va and vb of opposite signs. Of the hits on the surface, the one
+	 * nearest to where linear interpolation would put it is taken. */
+	private double crossing (double ax, double ay, double dx, double dy, double va, double vb, Node tree) {
+		double guess = va / (va - vb);
+		ray.frame = null;
+		ray.start.set (ax, ay, z);
+		ray.dir.set (dx, dy, 0);
+		il.clear();
+		tree.allIntersections (il, ray);
+		traced++;
+		double best = -1;
+		for (int k=0; k<il.n; k++) {
+			double t = il.t[k];
+			if (il.obj[k] == null || t < 0 || t > 1 || (best >= 0 && Math.abs (t - guess) >= Math.abs (best - guess))) {
+				continue;
+			}
+			if (Math.abs (tree.csg (ray.getX (t), ray.getY (t), z)) < 1e-6) {
+				best = t;
+			}
+		}
+		il.n = 0;
+		if (best >= 0) {
+			return best;
+		}
+		double lo = 0, hi = 1;	// va's side at lo
+		boolean ain = va < 0;
+		for (int k=0; k<BISECT_STEPS; k++) {
+			double m = (lo + hi) / 2;
+			if ((tree.csg (ax + m*dx, ay + m*dy, z) < 0) == ain) {
+				lo = m;
+			} else {
+				hi = m;
+			}
+		}
+		return (lo + hi) / 2;
+	}
+
+	private int addPoint (double x, double y) {
+		if (np == px.length) {
+			px = Arrays.copyOf (px, 2*np);
+			py = Arrays.copyOf (py, 2*np);
+			next = Arrays.copyOf (next, 2*np);
+		}
+		px[np] = x;
+		py[np] = y;
+		next[np] = -1;
+		return np++;
+	}
+
+	/* Follows the points from each to the next into contours, in the order the points were
+	 * made, so the same layer always comes out the same. They are simplified to tol. */
+	private void link (Layer l) {
+		l.contours.clear();
+		double[] cx = new double[64], cy = new double[64];
+		for (int s=0; s<np; s++) {
+			if (next[s] < 0) {
+				continue;
+			}
+			int n = 0;
+			int p = s;
+			while (p >= 0) {
+				if (n == cx.length) {
+					cx = Arrays.copyOf (cx, 2*n);
+					cy = Arrays.copyOf (cy, 2*n);
+				}
+				cx[n] = px[p];
+				cy[n] = py[p];
+				n++;
+				int q = next[p];
+				next[p] = -2;	// visited
+				p = q;
+				if (p == s) {
+					break;
+				}
+			}
+			if (p != s) {	// ran into a dead end; can't happen with consistent signs
+				System.out.println ("Slicer: open contour of " + n + " points at z = " + z + " dropped");
+				continue;
+			}
+			n = Contour.simplify (cx, cy, n, tol / 2);
+			l.contours.add (new Contour (Arrays.copyOf (cx, n), Arrays.copyOf (cy, n), n));
+		}
+	}
+}
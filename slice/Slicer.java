@@ -0,0 +1,138 @@
+package slice;
+import common.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+public class Slicer {
+
+	/* Cuts a model into layers, straight from its CSG tree: no mesh is ever made. The layers
+	 * are spread over Prefs SLICE_THREADS workers, which take them off a shared counter, as
+	 * the renderer's tiles are; layers near the top of a part cost much less than a base
+	 * with lots of holes, say, so this keeps the threads evenly busy. Each layer is written
+	 * into its own slot of the plan, so the output comes out in order, and the same every
+	 * time, however the threads ran. A layer is done exactly by SectionWorker if it can be,
+	 * and otherwise sampled by SliceWorker. */
+
+	public Node root;
+	public double layer_h;	// thickness of the layers of plan
+	public boolean adaptive;	// ... unless this is set, when AdaptiveLayers chooses them
+	public AdaptiveLayers adapt;	// which is kept here once it has
+	public boolean exact;	// try SectionWorker on each layer before SliceWorker
+	public double cell;
+	public int block;
+	public double tol;
+	public int nthreads;
+
+	public Slicer (Node root) {
+		if (root.bounds == null) {
+			throw new IllegalArgumentException ("Can't slice a model without bounds");
+		}
+		this.root = root;
+		this.layer_h = Prefs.current.SLICE_LAYER;
+		this.adaptive = Prefs.current.SLICE_ADAPTIVE;
+		this.exact = Prefs.current.SLICE_EXACT;
+		this.cell = Prefs.current.SLICE_CELL;
+		this.block = Prefs.current.SLICE_BLOCK;
+		this.tol = Prefs.current.SLICE_TOLERANCE;
+		this.nthreads = Math.max (1, Prefs.current.SLICE_THREADS);
+	}
+
+	/* Layers of layer_h from the bottom of the model to its top, or of the heights
+	 * AdaptiveLayers chooses, with no contours yet. The last one may stick out above the top. */
+	public Layer[] plan () {
+		Layer[] res = new Layer[layers()];
+		for (int i=0; i<res.length; i++) {
+			res[i] = layer (i);
+		}
+		return res;
+	}
+
+	/* How many layers plan has, and layer k of it, made on its own; GcodePipeline makes
+	 * them as it goes rather than holding the whole plan. */
+	public int layers () {
+		if (adaptive) {
+			return heights().length - 1;
+		}
+		double z0 = root.bounds.z0 + BBox.EPS;	// boxes are padded
+		double z1 = root.bounds.z1 - BBox.EPS;
+		return Math.max (1, (int) Math.ceil ((z1 - z0) / layer_h - 1e-9));
+	}
+
+	public Layer layer (int k) {
+		if (adaptive) {
+			double[] zb = heights();
+			return new Layer (k, (zb[k] + zb[k+1]) / 2, zb[k+1] - zb[k]);
+		}
+		return new Layer (k, root.bounds.z0 + BBox.EPS + (k + 0.5) * layer_h, layer_h);
+	}
+
+	private double[] zb;	// where adaptive layers meet
+
+	/* The adaptive layers, from AdaptiveLayers' pass over the model the first time. */
+	private synchronized double[] heights () {
+		if (zb == null) {
+			adapt = new AdaptiveLayers (root);
+			adapt.uniform_h = layer_h;
+			zb = adapt.plan();
+		}
+		return zb;
+	}
+
+	/* A worker each for the thread that calls them; e is null unless exact is set. */
+	public SectionWorker sectionWorker () {
+		return exact ? new SectionWorker (root, tol) : null;
+	}
+
+	public SliceWorker sliceWorker () {
+		return new SliceWorker (root, cell, block, tol);
+	}
+
+	/* Fills in the contours of l with e if it can, and with w if not. */
+	public void slice (Layer l, SectionWorker e, SliceWorker w) {
+		if (e == null || !e.slice (l)) {
+			w.slice (l);
+		}
+	}
+
+	public Layer[] slice () {
+		return slice (plan());
+	}
+
+	/* Fills in the contours of every layer of plan, in parallel, and returns it. */
+	public Layer[] slice (final Layer[] plan) {
+		final AtomicInteger next = new AtomicInteger (0);
+		ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+		for (int i=0; i<nthreads; i++) {
+			jobs.add (new Callable<Object> () {
+				public Object call () {
+					SectionWorker e = sectionWorker();
+					SliceWorker w = sliceWorker();
+					int k;
+					while ((k = next.getAndIncrement()) < plan.length) {
+						slice (plan[k], e, w);
+					}
+					return null;
+				}
+			});
+		}
+		ExecutorService pool = Executors.newFixedThreadPool (nthreads, new ThreadFactory () {
+			public Thread newThread (Runnable r) {
+				Thread t = new Thread (r, "Slicer");
+				t.setDaemon (true);
+				return t;
+			}
+		});
+		try {
+			for (Future<Object> f : pool.invokeAll (jobs)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException ("Slicer worker failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return plan;
+	}
+}
@@ -0,0 +1,94 @@
+package slice;
+import common.*;
+import java.util.ArrayList;
+public class Toolpaths {
+
+	/* Turns the contours of a layer into the paths that print it: perimeters loops round each
+	 * contour, a line's width apart inside the solid, and infill in what they leave. A wall is
+	 * found by moving each point of its contour along the bisector of the normals of the sides
+	 * either side of it (a miter, kept from running off to a spike at sharp corners), which is
+	 * exact where the sides are straight. An outline too small for a wall turns inside out and
+	 * is dropped; where a part is narrower than its walls only in places, the walls overlap
+	 * there rather than merging. One per thread, as the infill's buffers are. */
+
+	public static final double MITER = 4;	// longest a corner moves, in insets
+
+	public double width;
+	public int perimeters;
+	public Infill infill;
+
+	public Toolpaths (double width, int perimeters, Infill infill) {
+		this.width = width;
+		this.perimeters = perimeters;
+		this.infill = infill;
+	}
+
+	public Toolpaths (Node root) {
+		this (Prefs.current.GCODE_WIDTH, Prefs.current.GCODE_PERIMETERS, new Infill (root));
+	}
+
+	/* Fills in the paths of l from its contours. */
+	public void paths (Layer l) {
+		l.paths.clear();
+		for (int p=0; p<perimeters; p++) {
+			for (Contour c : l.contours) {
+				Contour w = inset (c, (p + 0.5) * width);
+				if (w != null) {
+					l.paths.add (new Path (w.x, w.y, w.n, true, Path.PERIMETER));
+				}
+			}
+		}
+		ArrayList<Contour> inside = new ArrayList<Contour>();	// what the walls leave
+		for (Contour c : l.contours) {
+			Contour w = inset (c, perimeters * width);
+			if (w != null) {
+				inside.add (w);
+			}
+		}
+		infill.fill (l, inside);
+	}
+
+	/* The loop d to the left of c (inside the solid), or null if there is none. */
+	public static Contour inset (Contour c, double d) {
+		int n = c.n;
+		if (d <= 0) {
+			return c;
+		}
+		double[] nx = new double[n], ny = new double[n];	// left normal of side i, from point i to i+1
+		int last = -1;	// a side with a length
+		for (int i=0; i<n; i++) {
+			int j = (i+1) % n;
+			double dx = c.x[j] - c.x[i], dy = c.y[j] - c.y[i];
+			double len = Math.hypot (dx, dy);
+			if (len > 0) {
+				nx[i] = -dy / len;
+				ny[i] = dx / len;
+				last = i;
+			} else {
+				nx[i] = Double.NaN;
+			}
+		}
+		if (last < 0) {
+			return null;
+		}
+		for (int i=0; i<n; i++) {	// a side of no length takes the normal of the one before
+			if (Double.isNaN (nx[i])) {
+				nx[i] = nx[last];
+				ny[i] = ny[last];
+			}
+			last = i;
+		}
+		double[] ox = new double[n], oy = new double[n];
+		for (int i=0, a=n-1; i<n; a=i++) {
+			double k = Math.max (1 + nx[a]*nx[i] + ny[a]*ny[i], 2 / (MITER*MITER));	// 1 + cos of the turn
+			ox[i] = c.x[i] + (nx[a] + nx[i]) * d / k;
+			oy[i] = c.y[i] + (ny[a] + ny[i]) * d / k;
+		}
+		Contour w = new Contour (ox, oy, n);
+		double a0 = c.area(), a1 = w.area();
+		if (a0 * a1 <= 0 || (a0 > 0 && a1 >= a0)) {	// turned inside out, or not inside at all
+			return null;
+		}
+		return w;
+	}
+}